@@ -0,0 +1,44 @@
+package neural;
+
+/**
+ * An activation function of a layer. The array methods are called once per layer and pass,
+ * so an implementation can keep its loops free of dispatch and let the JIT vectorize them.
+ */
+public interface Activation {
+	
+	/**
+	 * @param x Input
+	 * @return The activated value
+	 */
+	double activate(double x);
+	
+	/**
+	 * Calculates the derivate from the cached output of the function, not from its input.
+	 * @param y Output of activate
+	 * @return The derivate at the input of y
+	 */
+	double derivate(double y);
+	
+	/**
+	 * Activates a range of an array in place.
+	 * @param a Array
+	 * @param off First index
+	 * @param len Number of elements
+	 */
+	void activate(double[] a, int off, int len);
+	
+	void activate(float[] a, int off, int len);
+	
+	/**
+	 * Writes the derivates of a range of activated values into dest.
+	 * @param dest Destination array
+	 * @param dOff First index in dest
+	 * @param src Outputs of activate
+	 * @param sOff First index in src
+	 * @param len Number of elements
+	 */
+	void derivate(double[] dest, int dOff, double[] src, int sOff, int len);
+	
+	void derivate(float[] dest, int dOff, float[] src, int sOff, int len);
+
+}
@@ -5,24 +5,202 @@ package neural;
  */
 public class ActivationFunctions {
 	
-	public static enum Function {
+	public static final double LEAKY_RELU_SLOPE = 0.01;
+	
+	public static enum Function implements Activation {
+		SIGMOID,
+		TANH,
+		RELU,
+		LEAKY_RELU;
+		
+		@Override
+		public double activate(double x) {
+			switch (this) {
+			case SIGMOID:
+				return ActivationFunctions.sigmoid(x);
+			case TANH:
+				return ActivationFunctions.tanh(x);
+			case RELU:
+				return ActivationFunctions.relu(x);
+			default:
+				return ActivationFunctions.leakyRelu(x);
+			}
+		}
+		
+		@Override
+		public double derivate(double y) {
+			switch (this) {
+			case SIGMOID:
+				return ActivationFunctions.dsigmoid(y);
+			case TANH:
+				return ActivationFunctions.dtanh(y);
+			case RELU:
+				return ActivationFunctions.drelu(y);
+			default:
+				return ActivationFunctions.dleakyRelu(y);
+			}
+		}
+		
+		@Override
+		public void activate(double[] a, int off, int len) {
+			Kernels.activate(a, off, len, this);
+		}
+		
+		@Override
+		public void activate(float[] a, int off, int len) {
+			Kernels.activate(a, off, len, this);
+		}
+		
+		@Override
+		public void derivate(double[] dest, int dOff, double[] src, int sOff, int len) {
+			Kernels.derivate(dest, dOff, src, sOff, len, this);
+		}
+		
+		@Override
+		public void derivate(float[] dest, int dOff, float[] src, int sOff, int len) {
+			Kernels.derivate(dest, dOff, src, sOff, len, this);
+		}
+	};
+	
+	/**
+	 * Approximations of the activation functions for the fast math mode of the network.
+	 * Sigmoid is linearly interpolated in a table over [-16, 16] with 64 points per unit, tanh is
+	 * calculated from it as 2 * sigmoid(2x) - 1. The maximum absolute error is 5e-6 for sigmoid and
+	 * 1e-5 for tanh in double precision. The derivates are the same as the exact ones.
+	 */
+	public static enum FastFunction implements Activation {
 		SIGMOID,
-		TANH
+		TANH;
+		
+		@Override
+		public double activate(double x) {
+			return this == SIGMOID ? ActivationFunctions.fastSigmoid(x) : ActivationFunctions.fastTanh(x);
+		}
+		
+		@Override
+		public double derivate(double y) {
+			return this == SIGMOID ? ActivationFunctions.dsigmoid(y) : ActivationFunctions.dtanh(y);
+		}
+		
+		@Override
+		public void activate(double[] a, int off, int len) {
+			int end = off + len;
+			if (this == SIGMOID) {
+				for (int i=off; i<end; i++) {
+					a[i] = ActivationFunctions.fastSigmoid(a[i]);
+				}
+			} else {
+				for (int i=off; i<end; i++) {
+					a[i] = ActivationFunctions.fastTanh(a[i]);
+				}
+			}
+		}
+		
+		@Override
+		public void activate(float[] a, int off, int len) {
+			int end = off + len;
+			if (this == SIGMOID) {
+				for (int i=off; i<end; i++) {
+					a[i] = (float) ActivationFunctions.fastSigmoid(a[i]);
+				}
+			} else {
+				for (int i=off; i<end; i++) {
+					a[i] = (float) ActivationFunctions.fastTanh(a[i]);
+				}
+			}
+		}
+		
+		@Override
+		public void derivate(double[] dest, int dOff, double[] src, int sOff, int len) {
+			Kernels.derivate(dest, dOff, src, sOff, len, this == SIGMOID ? Function.SIGMOID : Function.TANH);
+		}
+		
+		@Override
+		public void derivate(float[] dest, int dOff, float[] src, int sOff, int len) {
+			Kernels.derivate(dest, dOff, src, sOff, len, this == SIGMOID ? Function.SIGMOID : Function.TANH);
+		}
 	};
 	
+	private static final int SIGMOID_TABLE_RANGE = 16;
+	private static final int SIGMOID_TABLE_STEPS = 64;
+	private static final double[] SIGMOID_TABLE = new double[2 * SIGMOID_TABLE_RANGE * SIGMOID_TABLE_STEPS + 1];
+	
+	static {
+		for (int i=0; i<SIGMOID_TABLE.length; i++) {
+			SIGMOID_TABLE[i] = ActivationFunctions.sigmoid((double) i / SIGMOID_TABLE_STEPS - SIGMOID_TABLE_RANGE);
+		}
+	}
+	
+	/**
+	 * Returns the fast math variant of an activation function. Functions without one are returned as they are.
+	 * @param activation Activation function
+	 * @return Activation function
+	 */
+	public static Activation fast(Activation activation) {
+		if (activation == Function.SIGMOID) return FastFunction.SIGMOID;
+		if (activation == Function.TANH) return FastFunction.TANH;
+		return activation;
+	}
+	
+	/**
+	 * Sigmoid interpolated from a table. Inputs outside of [-16, 16] are clamped.
+	 */
+	public static double fastSigmoid(double x) {
+		double t = Math.min(Math.max((x + SIGMOID_TABLE_RANGE) * SIGMOID_TABLE_STEPS, 0), SIGMOID_TABLE.length - 1);
+		int i = Math.min((int) t, SIGMOID_TABLE.length - 2);
+		double lo = SIGMOID_TABLE[i];
+		return lo + (t - i) * (SIGMOID_TABLE[i + 1] - lo);
+	}
+	
+	public static double fastTanh(double x) {
+		return 2 * ActivationFunctions.fastSigmoid(2 * x) - 1;
+	}
+	
 	public static double sigmoid(double x) {
-		return 1 / (1 + Math.pow(Math.E, -x));
+		return 1 / (1 + Math.exp(-x));
 	}
 	
-	public static double dsigmoid(double x) {
-		return x * (1 - x);
+	/**
+	 * @param y Output of sigmoid
+	 */
+	public static double dsigmoid(double y) {
+		return y * (1 - y);
 	}
 	
+	/**
+	 * Hyperbolic tangent with a single exponential. The exponent is never positive, so it does not overflow.
+	 */
 	public static double tanh(double x) {
-		return (Math.pow(Math.E, x) - Math.pow(Math.E, -x))/(Math.pow(Math.E, x) + Math.pow(Math.E, -x));
+		double e = Math.exp(-2 * Math.abs(x));
+		return Math.copySign((1 - e) / (1 + e), x);
+	}
+	
+	/**
+	 * @param y Output of tanh
+	 */
+	public static double dtanh(double y) {
+		return 1 - y * y;
+	}
+	
+	public static double relu(double x) {
+		return Math.max(x, 0.0);
+	}
+	
+	/**
+	 * @param y Output of relu
+	 */
+	public static double drelu(double y) {
+		return y > 0 ? 1 : 0;
+	}
+	
+	public static double leakyRelu(double x) {
+		return Math.max(x, LEAKY_RELU_SLOPE * x);
 	}
 	
-	public static double dtanh(double x) {
-		return 1 - ActivationFunctions.tanh(ActivationFunctions.tanh(x));
+	/**
+	 * @param y Output of leakyRelu
+	 */
+	public static double dleakyRelu(double y) {
+		return y > 0 ? 1 : LEAKY_RELU_SLOPE;
 	}
 }
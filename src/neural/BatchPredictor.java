@@ -0,0 +1,153 @@
+package neural;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Predicts many samples with few passes. The samples are packed into batches of
+ * NeuralNetwork.PREDICT_BATCH_SIZE columns, so every layer runs one GEMM per batch instead of one
+ * GEMV per sample, and the batches are split between the threads of the shared pool.
+ * Every batch is predicted in its own workspace, see NeuralNetwork.acquireWorkspace, so a thread that
+ * runs another batch while it waits for the halves of a multiplication does not overwrite the first.
+ * The results are handed to a sink column by column.
+ */
+class BatchPredictor {
+	
+	/**
+	 * Source of the input samples.
+	 */
+	interface Inputs {
+		int size();
+		
+		/**
+		 * Copies a sample into a column of the batch.
+		 */
+		void fill(Matrix batch, int column, int sample) throws Exception;
+	}
+	
+	/**
+	 * Receiver of the predictions.
+	 */
+	interface Sink {
+		/**
+		 * Receives the prediction of a sample, a column of the output.
+		 */
+		void accept(Matrix output, int column, int sample);
+	}
+	
+	private final NeuralNetwork network;
+	private final Inputs inputs;
+	private final Sink sink;
+	private final int batchSize;
+	
+	BatchPredictor(NeuralNetwork network, Inputs inputs, Sink sink) {
+		this.network = network;
+		this.inputs = inputs;
+		this.sink = sink;
+		this.batchSize = Math.max(1, Math.min(NeuralNetwork.PREDICT_BATCH_SIZE, inputs.size()));
+	}
+	
+	/**
+	 * Predicts all samples.
+	 */
+	void run() {
+		int batches = (this.inputs.size() + this.batchSize - 1) / this.batchSize;
+		if (batches == 0) return;
+		Parallel.invoke(new BatchTask(0, batches));
+	}
+	
+	private void predict(int batch) throws Exception {
+		Workspace workspace = this.network.acquireWorkspace(this.batchSize);
+		try {
+			workspace.reset();
+			Matrix batchInputs = workspace.getInputs();
+			int first = batch * this.batchSize;
+			int count = Math.min(this.batchSize, this.inputs.size() - first);
+			for (int j=0; j<count; j++) {
+				this.inputs.fill(batchInputs, j, first + j);
+			}
+			if (count < this.batchSize) {
+				// The columns of the last batch without a sample are predicted from zeros and ignored.
+				batchInputs.subMatrix(0, count, batchInputs.getN(), this.batchSize - count).init(0.0);
+			}
+			Matrix output = this.network.forward(workspace, batchInputs);
+			for (int j=0; j<count; j++) {
+				this.sink.accept(output, j, first + j);
+			}
+		} finally {
+			this.network.releaseWorkspace();
+		}
+	}
+	
+	/**
+	 * Predicts the batches from ... to - 1, split in halves between the threads.
+	 */
+	private class BatchTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int from, to;
+		
+		BatchTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (NeuralNetwork.PARALLELISM > 1 && this.to - this.from > 1) {
+				int mid = (this.from + this.to) >>> 1;
+				invokeAll(new BatchTask(this.from, mid), new BatchTask(mid, this.to));
+				return;
+			}
+			
+			try {
+				for (int b=this.from; b<this.to; b++) {
+					predict(b);
+				}
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+	
+	/**
+	 * @return Index of the largest value of a column
+	 */
+	static int argmax(Matrix output, int column) {
+		int index = 0;
+		double max = output.get(0, column);
+		for (int i=1; i<output.getN(); i++) {
+			double val = output.get(i, column);
+			if (val > max) {
+				max = val;
+				index = i;
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * @return Indices of the k largest values of a column, the largest first
+	 */
+	static int[] topK(Matrix output, int column, int k) {
+		k = Math.min(k, output.getN());
+		int[] indices = new int[k];
+		double[] values = new double[k];
+		int found = 0;
+		for (int i=0; i<output.getN(); i++) {
+			double val = output.get(i, column);
+			if (found == k && val <= values[k-1]) continue;
+			// Insertion into the sorted top list
+			int pos = found < k ? found++ : k - 1;
+			while (pos > 0 && values[pos-1] < val) {
+				values[pos] = values[pos-1];
+				indices[pos] = indices[pos-1];
+				pos--;
+			}
+			values[pos] = val;
+			indices[pos] = i;
+		}
+		return indices;
+	}
+
+}
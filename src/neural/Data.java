@@ -19,6 +19,7 @@ import javax.sound.sampled.AudioSystem;
 public class Data {
 	
 	private Matrix inputs;
+	private SparseMatrix sparseInputs;
 	private Matrix target;
 	private String label;
 	
@@ -35,12 +36,64 @@ public class Data {
 		this.inputs = Matrix.createVector(inputs);
 	}
 	
+	/**
+	 * Creates a data with inputs in CSR format. A factory instead of a constructor, so
+	 * new Data(null, targets) keeps calling Data(Matrix, Matrix).
+	 * @param inputs Sparse inputs
+	 * @param targets Targets
+	 * @return Data object
+	 */
+	public static Data fromSparse(SparseMatrix inputs, Matrix targets) {
+		Data d = new Data(null, targets);
+		d.setSparseInputs(inputs);
+		return d;
+	}
+	
+	/**
+	 * @return The dense inputs, or null if the inputs are sparse
+	 */
 	public Matrix getInputs() {
 		return inputs;
 	}
 
+	/**
+	 * Sets dense inputs. The sparse inputs are dropped.
+	 * @param inputs Inputs
+	 */
 	public void setInputs(Matrix inputs) {
 		this.inputs = inputs;
+		if (inputs != null) {
+			this.sparseInputs = null;
+		}
+	}
+	
+	/**
+	 * @return The inputs in CSR format, or null if the inputs are dense
+	 */
+	public SparseMatrix getSparseInputs() {
+		return sparseInputs;
+	}
+	
+	/**
+	 * Sets sparse inputs. The dense inputs are dropped.
+	 * @param sparseInputs Inputs in CSR format
+	 */
+	public void setSparseInputs(SparseMatrix sparseInputs) {
+		this.sparseInputs = sparseInputs;
+		this.inputs = null;
+	}
+	
+	public boolean isSparse() {
+		return this.sparseInputs != null;
+	}
+	
+	/**
+	 * Stores the inputs in CSR format as a vector.
+	 */
+	public void toSparse() {
+		if (this.inputs != null) {
+			this.setSparseInputs(SparseMatrix.fromDense(this.inputs).toVector());
+		}
 	}
 
 	public Matrix getTarget() {
@@ -154,6 +207,7 @@ public class Data {
 	public Data copy() {
 		Data d = new Data();
 		d.setInputs(this.inputs == null ? null : this.inputs.copy());
+		d.sparseInputs = this.sparseInputs == null ? null : this.sparseInputs.copy();
 		d.setTarget(this.target == null ? null : this.target.copy());
 		d.setLabel(this.label == null ? null : this.label);
 		return d;
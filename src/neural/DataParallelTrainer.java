@@ -0,0 +1,139 @@
+package neural;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Synchronous data-parallel training. Every mini-batch is split into contiguous shards, one per
+ * thread. Each thread runs the forward and backward pass of its shard in its own Workspace against
+ * the same weights, then the gradients of the shards are summed pairwise along a fixed binary tree
+ * and applied to the layers once per batch.
+ * <p>
+ * The samples are drawn on the calling thread and the reduction order does not depend on the
+ * scheduling, so with a seed the result only depends on the seed, the data and the number of threads.
+ */
+class DataParallelTrainer {
+	
+	private final NeuralNetwork network;
+	private final TrainingConfig config;
+	private final int threads;
+	private final int batchSize;
+	private final Workspace[] workspaces;
+	private final int[] shardStart;
+	private final double[] shardLoss;
+	private int[] samples;
+	private DataSet dataSet;
+	
+	DataParallelTrainer(NeuralNetwork network, TrainingConfig config) {
+		this.network = network;
+		this.config = config;
+		this.batchSize = config.getBatchSize();
+		this.threads = Math.max(1, Math.min(config.getThreads(), this.batchSize));
+		this.workspaces = new Workspace[this.threads];
+		this.shardStart = new int[this.threads + 1];
+		this.shardLoss = new double[this.threads];
+		for (int t=0; t<this.threads; t++) {
+			int size = this.batchSize / this.threads + (t < this.batchSize % this.threads ? 1 : 0);
+			this.shardStart[t+1] = this.shardStart[t] + size;
+			this.workspaces[t] = new Workspace(network.getLayerSizes(), network.getPrecision(), size);
+			this.workspaces[t].setApplyUpdates(false);
+		}
+	}
+	
+	/**
+	 * Trains the network with the batches of the config.
+	 * @param dataSet Training dataset
+	 * @param controller Stopping criteria of the run
+	 */
+	void train(DataSet dataSet, TrainingController controller) {
+		int iterations = this.config.getBatches(dataSet.size());
+		Random random = this.config.getSeed() == null ? new Random() : new Random(this.config.getSeed());
+		SampleOrder order = this.config.createSampleOrder(dataSet.size(), random);
+		this.dataSet = dataSet;
+		this.samples = new int[this.batchSize];
+		ForkJoinPool pool = new ForkJoinPool(this.threads);
+		this.network.printInfo("Training start. Batch size: " + this.batchSize + ", threads: " + this.threads);
+		long start = System.nanoTime();
+		int steps = 0;
+		int accumulationSteps = Math.max(1, this.config.getAccumulationSteps());
+		Gradients accumulated = accumulationSteps > 1 ? this.network.createGradients() : null;
+		try {
+			for (int i=0; i<iterations && !controller.isStopped(); i++) {
+				double percent = ((double)i / iterations * 100);
+				order.next(this.samples);
+				pool.invoke(new GradientTask(0, this.threads));
+				Gradients gradients = this.workspaces[0].getGradients();
+				if (accumulated == null) {
+					this.network.applyGradients(gradients, this.network.getOptimizer(), 1.0 / this.batchSize);
+				} else {
+					accumulated.add(gradients);
+					if ((i + 1) % accumulationSteps == 0 || i == iterations - 1) {
+						accumulated.apply(this.network.getOptimizer());
+						accumulated.clear();
+					}
+				}
+				steps++;
+				
+				double squaredSum = 0;
+				for (int t=0; t<this.threads; t++) {
+					squaredSum += this.shardLoss[t];
+				}
+				controller.afterStep(squaredSum, gradients.getSampleCount());
+				if (percent % 1 == 0) {
+					this.network.printInfo(percent + " %");
+					this.network.printLoss(squaredSum / gradients.getSampleCount());
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			pool.shutdown();
+			this.dataSet = null;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		this.network.printInfo("Training complete. " + Math.round((double) steps * this.batchSize / seconds) + " samples/s");
+	}
+	
+	/**
+	 * Copies the samples of a shard into the columns of its workspace.
+	 */
+	private Data fillShard(int shard) throws Exception {
+		Workspace workspace = this.workspaces[shard];
+		this.dataSet.fillBatch(this.samples, this.shardStart[shard], this.shardStart[shard+1], workspace.getInputs(), workspace.getTargets());
+		return new Data(workspace.getInputs(), workspace.getTargets());
+	}
+	
+	/**
+	 * Computes the gradients of the shards from ... to - 1 and leaves their sum in the workspace of the first shard.
+	 */
+	private class GradientTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int from, to;
+		
+		GradientTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			try {
+				if (this.to - this.from == 1) {
+					Matrix loss = network.trainStep(workspaces[this.from], fillShard(this.from));
+					shardLoss[this.from] = loss == null ? Double.NaN : Matrix.getSquaredNorm(loss);
+					return;
+				}
+				
+				int mid = (this.from + this.to) >>> 1;
+				invokeAll(new GradientTask(this.from, mid), new GradientTask(mid, this.to));
+				workspaces[this.from].getGradients().add(workspaces[mid].getGradients());
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
@@ -5,7 +5,6 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Scanner;
@@ -25,7 +24,11 @@ public class DataSet {
 	 */
 	public void optimize() {
 		for(Data d: this.data) {
-			d.getInputs().optimize();
+			if (d.isSparse()) {
+				d.getSparseInputs().optimize();
+			} else {
+				d.getInputs().optimize();
+			}
 		}
 	}
 	
@@ -74,6 +77,27 @@ public class DataSet {
 	}
 	
 	public static DataSet load(String path) {
+		return DataSet.load(path, Precision.FLOAT64);
+	}
+	
+	/**
+	 * Loads a dataset from a specified location and stores it with the given precision.
+	 * @param path Location of the dataset
+	 * @param precision Precision of the inputs and targets
+	 * @return Dataset object
+	 */
+	public static DataSet load(String path, Precision precision) {
+		return DataSet.load(path, precision, null);
+	}
+	
+	/**
+	 * Loads a dataset from a specified location and stores it outside of the heap.
+	 * @param path Location of the dataset
+	 * @param precision Precision of the inputs and targets
+	 * @param arena The owner of the inputs and targets, or null to keep them on the heap
+	 * @return Dataset object
+	 */
+	public static DataSet load(String path, Precision precision, OffHeapArena arena) {
 		DataSet dataSet = new DataSet();
 		staticPrintInfo("Dataset loading...");
 		try {
@@ -81,10 +105,12 @@ public class DataSet {
 			while (scanner.hasNextLine()) {
 		        String inputs = scanner.nextLine();
 		        String targets = scanner.nextLine();
-		        double[] inputValues = Arrays.asList(inputs.split(",")).stream().mapToDouble(Double::parseDouble).toArray();
-		        double[] targetValues = Arrays.asList(targets.split(",")).stream().mapToDouble(Double::parseDouble).toArray();
-		        Matrix inputMatrix = Matrix.createVector(inputValues);
-		        Matrix targetMatrix = Matrix.createVector(targetValues);
+		        Matrix inputMatrix = Matrix.fromLine(inputs, precision);
+		        Matrix targetMatrix = Matrix.fromLine(targets, precision);
+		        if (arena != null) {
+		        	inputMatrix = inputMatrix.copy(arena);
+		        	targetMatrix = targetMatrix.copy(arena);
+		        }
 		        dataSet.addData(new Data(inputMatrix, targetMatrix));
 			}
 			scanner.close();
@@ -101,7 +127,7 @@ public class DataSet {
 		try {
 			FileWriter myWriter = new FileWriter(path);
 			for(Data d: this.data) {
-				myWriter.write(d.getInputs().toLine()+"\n");
+				myWriter.write((d.isSparse() ? d.getSparseInputs().toDense() : d.getInputs()).toLine()+"\n");
 				myWriter.write(d.getTarget().toLine()+"\n");
 			}
 			myWriter.close();
@@ -112,23 +138,70 @@ public class DataSet {
 	}
 	
 	/**
-	 * Decreases an image size.
+	 * Converts all inputs and targets to the given precision.
+	 * @param precision Target precision
+	 */
+	public void setPrecision(Precision precision) {
+		for (Data d: this.data) {
+			if (!d.isSparse()) {
+				d.setInputs(d.getInputs() == null ? null : d.getInputs().toPrecision(precision));
+			}
+			d.setTarget(d.getTarget() == null ? null : d.getTarget().toPrecision(precision));
+		}
+	}
+	
+	/**
+	 * Stores all inputs in CSR format. Mostly zero inputs take less memory and the first layer
+	 * only multiplies the non zero values.
+	 */
+	public void toSparse() {
+		for (Data d: this.data) {
+			d.toSparse();
+		}
+	}
+	
+	/**
+	 * Moves all inputs and targets into an off-heap arena.
+	 * @param arena The owner of the inputs and targets
+	 */
+	public void moveTo(OffHeapArena arena) {
+		for (Data d: this.data) {
+			if (!d.isSparse()) {
+				d.setInputs(d.getInputs() == null ? null : d.getInputs().copy(arena));
+			}
+			d.setTarget(d.getTarget() == null ? null : d.getTarget().copy(arena));
+		}
+	}
+	
+	/**
+	 * Decreases an image size. Sparse inputs are vectors without the image shape, so they are rejected.
 	 * @param val The amount of decrease
+	 * @throws IllegalStateException If the inputs were converted by toSparse
 	 */
 	public void decreaseImage(int val) {
+		for(Data d: this.data) {
+			if (d.isSparse()) {
+				throw new IllegalStateException("Sparse inputs have no image shape, decrease the images before toSparse.");
+			}
+		}
 		for(Data d: this.data) {
 			d.setInputs(Matrix.decrease(d.getInputs(), val));
 		}
 	}
 	
 	/**
-	 * Decreases a vector data.
+	 * Decreases a vector data. Sparse inputs are decreased densely and stored sparse again.
 	 * @param val The amount of decrease
 	 */
 	public void decreaseData(int val) {
 		for(Data d: this.data) {
 			try {
-				d.setInputs(Matrix.decreaseVector(d.getInputs(), val));
+				if (d.isSparse()) {
+					d.setInputs(Matrix.decreaseVector(d.getSparseInputs().toDense(), val));
+					d.toSparse();
+				} else {
+					d.setInputs(Matrix.decreaseVector(d.getInputs(), val));
+				}
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
@@ -140,7 +213,8 @@ public class DataSet {
 	 * @param val The amount of decrease
 	 */
 	public void decrease(int val) {
-		if (this.data.get(0).getInputs().isVector()) {
+		Data first = this.data.get(0);
+		if (first.isSparse() || first.getInputs().isVector()) {
 			this.decreaseData(val);
 		} else {
 			this.decreaseImage(val);
@@ -182,13 +256,80 @@ public class DataSet {
 	}
 	
 	public int getInputSize() {
-		return this.data.get(0).getInputs().getElementsCount();
+		Data d = this.data.get(0);
+		return d.isSparse() ? d.getSparseInputs().getElementsCount() : d.getInputs().getElementsCount();
 	}
 	
 	public int getTargetSize() {
 		return this.data.get(0).getTarget().getElementsCount();
 	}
 	
+	/**
+	 * Reshapes all dense inputs and targets into column vectors. Contiguous matrices are reshaped
+	 * as views, so training can use the samples without copying them.
+	 */
+	public void vectorize() {
+		for (Data d: this.data) {
+			if (!d.isSparse() && d.getInputs() != null && d.getInputs().getM() != 1) {
+				d.setInputs(Matrix.createVectorFromMatrix(d.getInputs()));
+			}
+			if (d.getTarget() != null && d.getTarget().getM() != 1) {
+				d.setTarget(Matrix.createVectorFromMatrix(d.getTarget()));
+			}
+		}
+	}
+	
+	/**
+	 * Reshapes the dense inputs and targets into column vectors without changing this dataset, see vectorize.
+	 * Samples which are vectors already are shared, the others are replaced by new Data objects with
+	 * the reshaped matrices.
+	 * @return This dataset, if all samples are vectors, otherwise a new dataset
+	 */
+	public DataSet vectorized() {
+		DataSet vectorized = null;
+		for (int i=0; i<this.data.size(); i++) {
+			Data d = this.data.get(i);
+			boolean inputs = !d.isSparse() && d.getInputs() != null && d.getInputs().getM() != 1;
+			boolean target = d.getTarget() != null && d.getTarget().getM() != 1;
+			if (vectorized == null) {
+				if (!inputs && !target) continue;
+				vectorized = new DataSet();
+				vectorized.data.addAll(this.data.subList(0, i));
+				vectorized.labels.addAll(this.labels);
+			}
+			if (inputs || target) {
+				Matrix t = target ? Matrix.createVectorFromMatrix(d.getTarget()) : d.getTarget();
+				Data v = d.isSparse() ? Data.fromSparse(d.getSparseInputs(), t)
+						: new Data(inputs ? Matrix.createVectorFromMatrix(d.getInputs()) : d.getInputs(), t);
+				v.setLabel(d.getLabel());
+				d = v;
+			}
+			vectorized.data.add(d);
+		}
+		return vectorized == null ? this : vectorized;
+	}
+
+	/**
+	 * Copies samples into the columns of a batch.
+	 * @param samples Indices of the samples
+	 * @param from First index in samples
+	 * @param to End index in samples (exclusive)
+	 * @param inputs Destination of the inputs, column j receives samples[from + j]
+	 * @param targets Destination of the targets
+	 * @throws Exception
+	 */
+	void fillBatch(int[] samples, int from, int to, Matrix inputs, Matrix targets) throws Exception {
+		for (int j=from; j<to; j++) {
+			Data d = this.data.get(samples[j]);
+			if (d.isSparse()) {
+				inputs.setCol(j - from, d.getSparseInputs());
+			} else {
+				inputs.setCol(j - from, d.getInputs());
+			}
+			targets.setCol(j - from, d.getTarget());
+		}
+	}
+	
 	/**
 	 * Prints a text to the console.
 	 * @param text A text
@@ -211,14 +352,14 @@ public class DataSet {
 	
 	public void printData() {
 		for(Data d: this.data) {
-			d.getInputs().print();
+			(d.isSparse() ? d.getSparseInputs().toDense() : d.getInputs()).print();
 			d.getTarget().print();
 		}
 	}
 	
 	public void setInputsAsTarget() {
 		for (Data d: this.data) {
-			d.setTarget(d.getInputs());
+			d.setTarget(d.isSparse() ? d.getSparseInputs().toDense() : d.getInputs());
 		}
 	}
 
@@ -0,0 +1,136 @@
+package neural;
+
+/**
+ * Outcome of a NeuralNetwork.evaluate(DataSet) run. The class of a sample is the index of the largest
+ * value, of the target and of the prediction.
+ */
+public class EvaluationReport {
+	
+	private final int[][] confusion;
+	private final int[] targetCounts;
+	private final int[] predictedCounts;
+	private final long samples;
+	private final long correct;
+	private final long elapsedMillis;
+	
+	/**
+	 * @param confusion Number of samples of every target class (row) and predicted class (column)
+	 * @param elapsedMillis Duration of the evaluation
+	 */
+	public EvaluationReport(int[][] confusion, long elapsedMillis) {
+		int classes = confusion.length;
+		this.confusion = new int[classes][];
+		this.targetCounts = new int[classes];
+		this.predictedCounts = new int[classes];
+		long samples = 0, correct = 0;
+		for (int t=0; t<classes; t++) {
+			this.confusion[t] = confusion[t].clone();
+			for (int p=0; p<classes; p++) {
+				this.targetCounts[t] += confusion[t][p];
+				this.predictedCounts[p] += confusion[t][p];
+			}
+			samples += this.targetCounts[t];
+			correct += confusion[t][t];
+		}
+		this.samples = samples;
+		this.correct = correct;
+		this.elapsedMillis = elapsedMillis;
+	}
+	
+	public int getClassCount() {
+		return confusion.length;
+	}
+	
+	public long getSampleCount() {
+		return samples;
+	}
+	
+	public long getCorrectCount() {
+		return correct;
+	}
+	
+	/**
+	 * @return Ratio of the correctly predicted samples, between 0 and 1
+	 */
+	public double getAccuracy() {
+		return samples == 0 ? 0 : (double) correct / samples;
+	}
+	
+	/**
+	 * @param target Target class
+	 * @param predicted Predicted class
+	 * @return Number of samples of the target class predicted as the predicted class
+	 */
+	public int getCount(int target, int predicted) {
+		return confusion[target][predicted];
+	}
+	
+	/**
+	 * @return Copy of the confusion matrix, rows are target classes and columns predicted classes
+	 */
+	public int[][] getConfusionMatrix() {
+		int[][] copy = new int[confusion.length][];
+		for (int i=0; i<confusion.length; i++) {
+			copy[i] = confusion[i].clone();
+		}
+		return copy;
+	}
+	
+	/**
+	 * @param c Class index
+	 * @return Ratio of the samples predicted as the class which are of the class, 0 if none was predicted as it
+	 */
+	public double getPrecision(int c) {
+		return predictedCounts[c] == 0 ? 0 : (double) confusion[c][c] / predictedCounts[c];
+	}
+	
+	/**
+	 * @param c Class index
+	 * @return Ratio of the samples of the class which are predicted as it, 0 if no sample is of the class
+	 */
+	public double getRecall(int c) {
+		return targetCounts[c] == 0 ? 0 : (double) confusion[c][c] / targetCounts[c];
+	}
+	
+	/**
+	 * @return Mean precision of the classes
+	 */
+	public double getMacroPrecision() {
+		double sum = 0;
+		for (int c=0; c<confusion.length; c++) {
+			sum += this.getPrecision(c);
+		}
+		return confusion.length == 0 ? 0 : sum / confusion.length;
+	}
+	
+	/**
+	 * @return Mean recall of the classes
+	 */
+	public double getMacroRecall() {
+		double sum = 0;
+		for (int c=0; c<confusion.length; c++) {
+			sum += this.getRecall(c);
+		}
+		return confusion.length == 0 ? 0 : sum / confusion.length;
+	}
+	
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Accuracy: ").append(this.getAccuracy() * 100).append(" % (").append(correct).append("/").append(samples).append(") in ").append(elapsedMillis).append(" ms\n");
+		sb.append("Class\tPrecision\tRecall\tConfusion\n");
+		for (int c=0; c<confusion.length; c++) {
+			sb.append(c).append("\t").append(String.format("%.4f", this.getPrecision(c))).append("\t\t").append(String.format("%.4f", this.getRecall(c))).append("\t");
+			for (int p=0; p<confusion.length; p++) {
+				sb.append(p == 0 ? "" : " ").append(confusion[c][p]);
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+}
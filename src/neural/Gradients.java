@@ -0,0 +1,150 @@
+package neural;
+
+/**
+ * The weight and bias gradients of every layer of a network, summed over the samples of one or
+ * more training steps. A gradient points in the direction of a smaller loss, so applying it adds it
+ * to the weights. Gradients can be accumulated over several steps, scaled and clipped before they
+ * are applied once.
+ * <pre>
+ * Gradients gradients = network.createGradients();
+ * for (Data d: batch) {
+ *     network.computeGradients(d, gradients);
+ * }
+ * gradients.clipNorm(5.0);
+ * gradients.apply(network.getOptimizer());
+ * gradients.clear();
+ * </pre>
+ */
+public class Gradients {
+	
+	private final Matrix[] weightGradients;
+	private final Matrix[] biasGradients;
+	private NeuralNetwork network;
+	private int sampleCount;
+	
+	/**
+	 * Creates zero gradients for a network shape, which do not belong to a network.
+	 * @param layerSizes Sizes of the layers, starting with the input size
+	 * @param precision Element format
+	 */
+	Gradients(int[] layerSizes, Precision precision) {
+		int layers = layerSizes.length - 1;
+		this.weightGradients = new Matrix[layers];
+		this.biasGradients = new Matrix[layers];
+		for (int i=0; i<layers; i++) {
+			this.weightGradients[i] = new Matrix(layerSizes[i+1], layerSizes[i], precision);
+			this.biasGradients[i] = new Matrix(layerSizes[i+1], 1, precision);
+		}
+	}
+	
+	/**
+	 * Creates zero gradients of a network.
+	 * @param network The network updated by apply
+	 */
+	Gradients(NeuralNetwork network) {
+		this(network.getLayerSizes(), network.getPrecision());
+		this.network = network;
+	}
+	
+	/**
+	 * @param index Index of the layer
+	 * @return Weight gradient of the layer
+	 */
+	public Matrix getWeightGradient(int index) {
+		return this.weightGradients[index];
+	}
+	
+	/**
+	 * @param index Index of the layer
+	 * @return Bias gradient of the layer
+	 */
+	public Matrix getBiasGradient(int index) {
+		return this.biasGradients[index];
+	}
+	
+	public int getLayerCount() {
+		return this.weightGradients.length;
+	}
+	
+	/**
+	 * @return Number of samples summed into the gradients
+	 */
+	public int getSampleCount() {
+		return sampleCount;
+	}
+	
+	void setSampleCount(int sampleCount) {
+		this.sampleCount = sampleCount;
+	}
+	
+	/**
+	 * Adds other gradients of the same shape.
+	 * @param other Gradients
+	 * @throws Exception
+	 */
+	public void add(Gradients other) throws Exception {
+		for (int i=0; i<this.weightGradients.length; i++) {
+			Matrix.axpy(1.0, other.weightGradients[i], this.weightGradients[i]);
+			Matrix.axpy(1.0, other.biasGradients[i], this.biasGradients[i]);
+		}
+		this.sampleCount += other.sampleCount;
+	}
+	
+	/**
+	 * Multiplies all gradients with a number.
+	 * @param alpha Factor
+	 */
+	public void scale(double alpha) {
+		for (int i=0; i<this.weightGradients.length; i++) {
+			this.weightGradients[i].multiply(alpha);
+			this.biasGradients[i].multiply(alpha);
+		}
+	}
+	
+	/**
+	 * @return The euclidean norm of all elements of all gradients together
+	 */
+	public double getNorm() {
+		double sum = 0;
+		for (int i=0; i<this.weightGradients.length; i++) {
+			sum += Matrix.getSquaredNorm(this.weightGradients[i]);
+			sum += Matrix.getSquaredNorm(this.biasGradients[i]);
+		}
+		return Math.sqrt(sum);
+	}
+	
+	/**
+	 * Scales the gradients down, if the norm of the averaged gradient is larger than maxNorm.
+	 * @param maxNorm Largest allowed norm of the averaged gradient
+	 */
+	public void clipNorm(double maxNorm) {
+		double norm = this.getNorm() / Math.max(1, this.sampleCount);
+		if (norm > maxNorm) {
+			this.scale(maxNorm / norm);
+		}
+	}
+	
+	/**
+	 * Sets all gradients and the sample count to zero.
+	 */
+	public void clear() {
+		for (int i=0; i<this.weightGradients.length; i++) {
+			this.weightGradients[i].init(0.0);
+			this.biasGradients[i].init(0.0);
+		}
+		this.sampleCount = 0;
+	}
+	
+	/**
+	 * Updates the network with the gradients averaged over their samples. The gradients are not cleared.
+	 * @param optimizer The update rule, or null for gradient descent with NeuralNetwork.LEARNING_RATE
+	 * @throws Exception
+	 */
+	public void apply(Optimizer optimizer) throws Exception {
+		if (this.network == null) {
+			throw new IllegalStateException("The gradients do not belong to a network.");
+		}
+		this.network.applyGradients(this, optimizer, 1.0 / Math.max(1, this.sampleCount));
+	}
+
+}
@@ -0,0 +1,117 @@
+package neural;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous lock-free training in the style of Hogwild. Every thread takes its own batches from
+ * one shared sample order and trains them in its own Workspace, so the activations of the threads
+ * are separate, while the
+ * weight updates go directly into the shared layers without any synchronization. Concurrent updates
+ * of the same weight may overwrite each other; with sparse inputs and small batches such collisions
+ * are rare and do not hurt the convergence. The threads only wait for each other while drawing
+ * the indices of a batch and, once per REPORT_INTERVAL steps, while reporting to the controller.
+ */
+class HogwildTrainer {
+	
+	/** Number of steps a thread sums up before it reports them to the controller. */
+	private static final int REPORT_INTERVAL = 16;
+	
+	private final NeuralNetwork network;
+	private final TrainingConfig config;
+	private final int threads;
+	private final AtomicInteger nextBatch;
+	private final AtomicLong completedBatches;
+	
+	HogwildTrainer(NeuralNetwork network, TrainingConfig config) {
+		this.network = network;
+		this.config = config;
+		this.threads = Math.max(1, config.getThreads());
+		this.nextBatch = new AtomicInteger();
+		this.completedBatches = new AtomicLong();
+	}
+	
+	/**
+	 * Trains the network with the batches of the config, shared by all threads. In epoch mode
+	 * the threads walk one shuffled permutation of the dataset per epoch together, so every
+	 * sample is seen once per epoch as in the serial training.
+	 * @param dataSet Training dataset
+	 * @param controller Stopping criteria of the run, shared by all threads
+	 */
+	void train(DataSet dataSet, TrainingController controller) {
+		this.network.printInfo("Training start. Batch size: " + this.config.getBatchSize() + ", threads: " + this.threads + ", asynchronous");
+		this.nextBatch.set(0);
+		this.completedBatches.set(0);
+		Thread[] workers = new Thread[this.threads];
+		long start = System.nanoTime();
+		Random random = this.config.getSeed() == null ? new Random() : new Random(this.config.getSeed());
+		SampleOrder order = this.config.createSampleOrder(dataSet.size(), random);
+		for (int t=0; t<this.threads; t++) {
+			workers[t] = new Thread(() -> this.work(dataSet, order, controller), "hogwild-" + t);
+			workers[t].start();
+		}
+		for (Thread worker: workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				e.printStackTrace();
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long samples = this.completedBatches.get() * this.config.getBatchSize();
+		this.network.printInfo("Training complete. " + Math.round(samples / seconds) + " samples/s");
+	}
+	
+	/**
+	 * Trains batches until all batches of the run are taken. The losses are reported to the controller
+	 * every REPORT_INTERVAL steps, or at once if a step failed, but never less often than the
+	 * validation interval of the config.
+	 * @param order Sample order shared by all threads
+	 */
+	private void work(DataSet dataSet, SampleOrder order, TrainingController controller) {
+		int batchSize = this.config.getBatchSize();
+		int iterations = this.config.getBatches(dataSet.size());
+		int interval = Math.max(1, Math.min(REPORT_INTERVAL, this.config.getValidationInterval()));
+		Workspace workspace = new Workspace(this.network.getLayerSizes(), this.network.getPrecision(), batchSize);
+		Data batch = new Data(workspace.getInputs(), workspace.getTargets());
+		int[] samples = new int[batchSize];
+		double pendingSum = 0;
+		int pendingSteps = 0;
+		try {
+			for (int i=this.nextBatch.getAndIncrement(); i<iterations && !controller.isStopped(); i=this.nextBatch.getAndIncrement()) {
+				double percent = ((double)i / iterations * 100);
+				synchronized (order) {
+					order.next(samples);
+				}
+				// A single sample is only read, so a sparse sample keeps the sparse update of the first layer.
+				Data d = batchSize == 1 ? dataSet.getData(samples[0]) : batch;
+				if (batchSize > 1) {
+					dataSet.fillBatch(samples, 0, batchSize, batch.getInputs(), batch.getTarget());
+				}
+				Matrix trainLoss = this.network.trainStep(workspace, d);
+				double squaredSum = trainLoss == null ? Double.NaN : Matrix.getSquaredNorm(trainLoss);
+				this.completedBatches.incrementAndGet();
+				pendingSum += squaredSum;
+				pendingSteps++;
+				if (pendingSteps == interval || Double.isNaN(pendingSum) || Double.isInfinite(pendingSum)) {
+					controller.afterSteps(pendingSum, (long) pendingSteps * batchSize, pendingSteps);
+					pendingSum = 0;
+					pendingSteps = 0;
+				}
+				
+				if (percent % 1 == 0) {
+					this.network.printInfo(percent + " %");
+					this.network.printLoss(squaredSum / batchSize);
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		if (pendingSteps > 0) {
+			controller.afterSteps(pendingSum, (long) pendingSteps * batchSize, pendingSteps);
+		}
+	}
+	
+}
@@ -0,0 +1,177 @@
+package neural;
+
+/**
+ * Immutable inference copy of a NeuralNetwork, created by NeuralNetwork.freeze(). The weights and
+ * the biases of all layers are packed into one contiguous array, every layer is one fused pass of
+ * matrix-vector product, bias and activation, and the activations alternate between two
+ * preallocated buffers of the calling thread. The model does not change when the network is trained
+ * further, and any number of threads may predict with it concurrently.
+ */
+public class InferenceModel {
+	
+	private final int[] layerSizes;
+	private final Precision precision;
+	private final double[] params;
+	private final float[] floatParams;
+	private final int[] offsets;
+	private final Activation[] activations;
+	private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+	
+	/**
+	 * Copies the weights, the biases and the resolved activation functions of the layers.
+	 * @param layerSizes Sizes of the layers, starting with the input size
+	 * @param layers Layers of the network
+	 * @param precision Element format of the packed parameters
+	 */
+	InferenceModel(int[] layerSizes, Layer[] layers, Precision precision) {
+		this.layerSizes = layerSizes.clone();
+		this.precision = precision;
+		this.offsets = new int[layers.length + 1];
+		this.activations = new Activation[layers.length];
+		for (int l=0; l<layers.length; l++) {
+			// Layer l: the n x k weights row by row, followed by the n biases
+			this.offsets[l + 1] = this.offsets[l] + layerSizes[l + 1] * (layerSizes[l] + 1);
+			this.activations[l] = layers[l].resolveActivation();
+		}
+		
+		int count = this.offsets[layers.length];
+		this.params = precision == Precision.FLOAT64 ? new double[count] : null;
+		this.floatParams = precision == Precision.FLOAT32 ? new float[count] : null;
+		for (int l=0; l<layers.length; l++) {
+			Matrix w = layers[l].getData();
+			Matrix b = layers[l].getBias();
+			int idx = this.offsets[l];
+			for (int i=0; i<w.getN(); i++) {
+				for (int j=0; j<w.getM(); j++) {
+					this.set(idx++, w.get(i, j));
+				}
+			}
+			for (int i=0; i<b.getN(); i++) {
+				this.set(idx++, b.get(i, 0));
+			}
+		}
+	}
+	
+	private void set(int index, double value) {
+		if (this.params != null) {
+			this.params[index] = value;
+		} else {
+			this.floatParams[index] = (float) value;
+		}
+	}
+	
+	/**
+	 * Predicts an input vector into a buffer of the caller.
+	 * @param input Input values, getInputsSize() elements
+	 * @param output Destination of the prediction, getTargetsSize() elements
+	 */
+	public void predict(double[] input, double[] output) {
+		if (input.length != this.getInputsSize() || output.length < this.getTargetsSize()) {
+			throw new IllegalArgumentException("Dimensions do not matches.");
+		}
+		
+		Buffers b = this.buffers.get();
+		int last = this.activations.length - 1;
+		if (this.params != null) {
+			double[] x = input;
+			for (int l=0; l<=last; l++) {
+				int n = this.layerSizes[l + 1];
+				double[] y = l == last ? output : b.doubles[l & 1];
+				Kernels.gemvBias(n, this.layerSizes[l], this.params, this.offsets[l], x, y);
+				this.activations[l].activate(y, 0, n);
+				x = y;
+			}
+		} else {
+			float[] x = b.floatInput;
+			for (int i=0; i<input.length; i++) {
+				x[i] = (float) input[i];
+			}
+			for (int l=0; l<=last; l++) {
+				int n = this.layerSizes[l + 1];
+				float[] y = b.floats[l & 1];
+				Kernels.gemvBias(n, this.layerSizes[l], this.floatParams, this.offsets[l], x, y);
+				this.activations[l].activate(y, 0, n);
+				x = y;
+			}
+			for (int i=0; i<this.getTargetsSize(); i++) {
+				output[i] = x[i];
+			}
+		}
+	}
+	
+	/**
+	 * @param input Input values, getInputsSize() elements
+	 * @return The prediction
+	 */
+	public double[] predict(double[] input) {
+		double[] output = new double[this.getTargetsSize()];
+		this.predict(input, output);
+		return output;
+	}
+	
+	/**
+	 * @param input Input values, getInputsSize() elements
+	 * @return Index of the largest output
+	 */
+	public int predictClass(double[] input) {
+		double[] output = this.buffers.get().output;
+		this.predict(input, output);
+		int index = 0;
+		for (int i=1; i<output.length; i++) {
+			if (output[i] > output[index]) {
+				index = i;
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * @return Number of packed weights and biases
+	 */
+	public int getParameterCount() {
+		return this.offsets[this.offsets.length - 1];
+	}
+	
+	public int[] getLayerSizes() {
+		return layerSizes.clone();
+	}
+	
+	public Precision getPrecision() {
+		return precision;
+	}
+	
+	public int getInputsSize() {
+		return this.layerSizes[0];
+	}
+	
+	public int getTargetsSize() {
+		return this.layerSizes[this.layerSizes.length - 1];
+	}
+	
+	/**
+	 * Ping-pong activation buffers of a thread, layer l writes into buffer l % 2.
+	 */
+	private class Buffers {
+		final double[][] doubles;
+		final float[][] floats;
+		final float[] floatInput;
+		final double[] output = new double[getTargetsSize()];
+		
+		Buffers() {
+			int max = 0;
+			for (int l=1; l<layerSizes.length; l++) {
+				max = Math.max(max, layerSizes[l]);
+			}
+			if (params != null) {
+				this.doubles = new double[][] { new double[max], new double[max] };
+				this.floats = null;
+				this.floatInput = null;
+			} else {
+				this.doubles = null;
+				this.floats = new float[][] { new float[max], new float[max] };
+				this.floatInput = new float[getInputsSize()];
+			}
+		}
+	}
+
+}
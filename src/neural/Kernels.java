@@ -0,0 +1,450 @@
+package neural;
+
+import neural.ActivationFunctions.Function;
+
+/**
+ * Loops over contiguous ranges of the Matrix backing arrays. The function and the flags of a
+ * kernel are selected once, outside of its loops.
+ * <p>
+ * add, scale, axpy, hadamard, dot, squaredSum, gemvBias, the optimizer steps and the sigmoid and
+ * tanh loops of derivate are plain counted loops without calls or branches in their body, so the
+ * JIT can unroll them and compile them to SIMD instructions (SSE/AVX2/AVX-512). Math.sqrt in the
+ * optimizer steps is an intrinsic and compiles to one instruction. The int8 gemv has no branches
+ * either, but HotSpot does not vectorize its byte multiply-accumulate.
+ * <p>
+ * The other loops are not branch-free. activate calls Math.exp for sigmoid and
+ * ActivationFunctions.tanh for tanh per element, only its ReLU loops (Math.max) vectorize.
+ * The ReLU loops of derivate select with a ternary, which the JIT may compile to a branch, and
+ * quantize calls Math.round and clamps.
+ */
+final class Kernels {
+	
+	private Kernels() { }
+	
+	static void add(double[] a, int off, int len, double num) {
+		for (int i=off, end=off+len; i<end; i++) {
+			a[i] += num;
+		}
+	}
+	
+	static void add(float[] a, int off, int len, float num) {
+		for (int i=off, end=off+len; i<end; i++) {
+			a[i] += num;
+		}
+	}
+	
+	static void scale(double[] a, int off, int len, double alpha) {
+		for (int i=off, end=off+len; i<end; i++) {
+			a[i] *= alpha;
+		}
+	}
+	
+	static void scale(float[] a, int off, int len, float alpha) {
+		for (int i=off, end=off+len; i<end; i++) {
+			a[i] *= alpha;
+		}
+	}
+	
+	/**
+	 * y += alpha * x
+	 */
+	static void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len) {
+		for (int i=0; i<len; i++) {
+			y[yOff + i] += alpha * x[xOff + i];
+		}
+	}
+	
+	static void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int len) {
+		for (int i=0; i<len; i++) {
+			y[yOff + i] += alpha * x[xOff + i];
+		}
+	}
+	
+	/**
+	 * dest = alpha * a * b
+	 */
+	static void hadamard(double[] dest, int dOff, double[] a, int aOff, double[] b, int bOff, int len, double alpha) {
+		for (int i=0; i<len; i++) {
+			dest[dOff + i] = alpha * a[aOff + i] * b[bOff + i];
+		}
+	}
+	
+	static void hadamard(float[] dest, int dOff, float[] a, int aOff, float[] b, int bOff, int len, float alpha) {
+		for (int i=0; i<len; i++) {
+			dest[dOff + i] = alpha * a[aOff + i] * b[bOff + i];
+		}
+	}
+	
+	/**
+	 * Dot product with four independent partial sums, so the additions do not wait for each other.
+	 */
+	static double dot(double[] a, int aOff, double[] b, int bOff, int len) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i + 3 < len; i += 4) {
+			s0 += a[aOff + i] * b[bOff + i];
+			s1 += a[aOff + i + 1] * b[bOff + i + 1];
+			s2 += a[aOff + i + 2] * b[bOff + i + 2];
+			s3 += a[aOff + i + 3] * b[bOff + i + 3];
+		}
+		for (; i<len; i++) {
+			s0 += a[aOff + i] * b[bOff + i];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+	
+	/**
+	 * Sum of the squares of a range.
+	 */
+	static double squaredSum(double[] a, int off, int len) {
+		return Kernels.dot(a, off, a, off, len);
+	}
+	
+	/**
+	 * Sum of the squares of a range, accumulated in double precision.
+	 */
+	static double squaredSum(float[] a, int off, int len) {
+		double s0 = 0, s1 = 0;
+		int i = 0;
+		for (; i + 1 < len; i += 2) {
+			double v0 = a[off + i];
+			double v1 = a[off + i + 1];
+			s0 += v0 * v0;
+			s1 += v1 * v1;
+		}
+		for (; i<len; i++) {
+			double v = a[off + i];
+			s0 += v * v;
+		}
+		return s0 + s1;
+	}
+	
+	/**
+	 * Matrix-vector product with bias, c = A * x + b, for a row-major A with k columns stored at aOff,
+	 * followed by the n bias values. Four rows are calculated together and the bias is added
+	 * when the sums are stored, so the pass reads A, x and b once and writes c once.
+	 */
+	static void gemvBias(int n, int k, double[] a, int aOff, double[] x, double[] c) {
+		int bOff = aOff + n * k;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			int r0 = aOff + i * k;
+			int r1 = r0 + k;
+			int r2 = r1 + k;
+			int r3 = r2 + k;
+			double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			for (int l=0; l<k; l++) {
+				double xv = x[l];
+				s0 += a[r0 + l] * xv;
+				s1 += a[r1 + l] * xv;
+				s2 += a[r2 + l] * xv;
+				s3 += a[r3 + l] * xv;
+			}
+			c[i] = s0 + a[bOff + i];
+			c[i + 1] = s1 + a[bOff + i + 1];
+			c[i + 2] = s2 + a[bOff + i + 2];
+			c[i + 3] = s3 + a[bOff + i + 3];
+		}
+		
+		for (; i<n; i++) {
+			int r = aOff + i * k;
+			double s = 0;
+			for (int l=0; l<k; l++) {
+				s += a[r + l] * x[l];
+			}
+			c[i] = s + a[bOff + i];
+		}
+	}
+	
+	/**
+	 * Single precision version of gemvBias.
+	 */
+	static void gemvBias(int n, int k, float[] a, int aOff, float[] x, float[] c) {
+		int bOff = aOff + n * k;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			int r0 = aOff + i * k;
+			int r1 = r0 + k;
+			int r2 = r1 + k;
+			int r3 = r2 + k;
+			float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			for (int l=0; l<k; l++) {
+				float xv = x[l];
+				s0 += a[r0 + l] * xv;
+				s1 += a[r1 + l] * xv;
+				s2 += a[r2 + l] * xv;
+				s3 += a[r3 + l] * xv;
+			}
+			c[i] = s0 + a[bOff + i];
+			c[i + 1] = s1 + a[bOff + i + 1];
+			c[i + 2] = s2 + a[bOff + i + 2];
+			c[i + 3] = s3 + a[bOff + i + 3];
+		}
+		
+		for (; i<n; i++) {
+			int r = aOff + i * k;
+			float s = 0;
+			for (int l=0; l<k; l++) {
+				s += a[r + l] * x[l];
+			}
+			c[i] = s + a[bOff + i];
+		}
+	}
+	
+	/**
+	 * Matrix-vector product of int8 values with int32 accumulation, c[i] = sum(a[i * k + l] * x[l]).
+	 * Four rows are calculated together, so every loaded x value is used four times. The sums can not
+	 * overflow for rows shorter than 2^31 / 127^2 (about 133000) elements.
+	 */
+	static void gemv(int n, int k, byte[] a, byte[] x, int[] c) {
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			int r0 = i * k;
+			int r1 = r0 + k;
+			int r2 = r1 + k;
+			int r3 = r2 + k;
+			int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			for (int l=0; l<k; l++) {
+				int xv = x[l];
+				s0 += a[r0 + l] * xv;
+				s1 += a[r1 + l] * xv;
+				s2 += a[r2 + l] * xv;
+				s3 += a[r3 + l] * xv;
+			}
+			c[i] = s0;
+			c[i + 1] = s1;
+			c[i + 2] = s2;
+			c[i + 3] = s3;
+		}
+		
+		for (; i<n; i++) {
+			int r = i * k;
+			int s = 0;
+			for (int l=0; l<k; l++) {
+				s += a[r + l] * x[l];
+			}
+			c[i] = s;
+		}
+	}
+	
+	/**
+	 * Symmetric int8 quantization: q = round(x * invScale), clamped to [-127, 127].
+	 */
+	static void quantize(byte[] dest, int dOff, double[] src, int sOff, int len, double invScale) {
+		for (int i=0; i<len; i++) {
+			long q = Math.round(src[sOff + i] * invScale);
+			dest[dOff + i] = (byte) Math.max(-127, Math.min(127, q));
+		}
+	}
+	
+	/**
+	 * Momentum step: v = momentum * v + scale * g, then p += rate * v, or with Nesterov p += rate * (scale * g + momentum * v).
+	 */
+	static void momentum(double[] p, int pOff, double[] g, int gOff, double[] v, int vOff, int len, double scale, double rate, double momentum, boolean nesterov) {
+		if (nesterov) {
+			for (int i=0; i<len; i++) {
+				double gi = scale * g[gOff + i];
+				double vi = momentum * v[vOff + i] + gi;
+				v[vOff + i] = vi;
+				p[pOff + i] += rate * (gi + momentum * vi);
+			}
+		} else {
+			for (int i=0; i<len; i++) {
+				double vi = momentum * v[vOff + i] + scale * g[gOff + i];
+				v[vOff + i] = vi;
+				p[pOff + i] += rate * vi;
+			}
+		}
+	}
+	
+	static void momentum(float[] p, int pOff, float[] g, int gOff, float[] v, int vOff, int len, float scale, float rate, float momentum, boolean nesterov) {
+		if (nesterov) {
+			for (int i=0; i<len; i++) {
+				float gi = scale * g[gOff + i];
+				float vi = momentum * v[vOff + i] + gi;
+				v[vOff + i] = vi;
+				p[pOff + i] += rate * (gi + momentum * vi);
+			}
+		} else {
+			for (int i=0; i<len; i++) {
+				float vi = momentum * v[vOff + i] + scale * g[gOff + i];
+				v[vOff + i] = vi;
+				p[pOff + i] += rate * vi;
+			}
+		}
+	}
+	
+	/**
+	 * RMSProp step: s = decay * s + (1 - decay) * (scale * g)^2, then p += rate * scale * g / (sqrt(s) + epsilon).
+	 */
+	static void rmsProp(double[] p, int pOff, double[] g, int gOff, double[] s, int sOff, int len, double scale, double rate, double decay, double epsilon) {
+		for (int i=0; i<len; i++) {
+			double gi = scale * g[gOff + i];
+			double si = decay * s[sOff + i] + (1 - decay) * gi * gi;
+			s[sOff + i] = si;
+			p[pOff + i] += rate * gi / (Math.sqrt(si) + epsilon);
+		}
+	}
+	
+	static void rmsProp(float[] p, int pOff, float[] g, int gOff, float[] s, int sOff, int len, float scale, float rate, float decay, float epsilon) {
+		for (int i=0; i<len; i++) {
+			float gi = scale * g[gOff + i];
+			float si = decay * s[sOff + i] + (1 - decay) * gi * gi;
+			s[sOff + i] = si;
+			p[pOff + i] += rate * gi / ((float) Math.sqrt(si) + epsilon);
+		}
+	}
+	
+	/**
+	 * Adam step with a bias corrected rate: m and v are the moving averages of scale * g and its square,
+	 * then p += rate * m / (sqrt(v) + epsilon).
+	 */
+	static void adam(double[] p, int pOff, double[] g, int gOff, double[] m, double[] v, int sOff, int len, double scale, double rate, double beta1, double beta2, double epsilon) {
+		for (int i=0; i<len; i++) {
+			double gi = scale * g[gOff + i];
+			double mi = beta1 * m[sOff + i] + (1 - beta1) * gi;
+			double vi = beta2 * v[sOff + i] + (1 - beta2) * gi * gi;
+			m[sOff + i] = mi;
+			v[sOff + i] = vi;
+			p[pOff + i] += rate * mi / (Math.sqrt(vi) + epsilon);
+		}
+	}
+	
+	static void adam(float[] p, int pOff, float[] g, int gOff, float[] m, float[] v, int sOff, int len, float scale, float rate, float beta1, float beta2, float epsilon) {
+		for (int i=0; i<len; i++) {
+			float gi = scale * g[gOff + i];
+			float mi = beta1 * m[sOff + i] + (1 - beta1) * gi;
+			float vi = beta2 * v[sOff + i] + (1 - beta2) * gi * gi;
+			m[sOff + i] = mi;
+			v[sOff + i] = vi;
+			p[pOff + i] += rate * mi / ((float) Math.sqrt(vi) + epsilon);
+		}
+	}
+	
+	/**
+	 * Maps the activation function over a range. The function is selected once, outside of the loop.
+	 */
+	static void activate(double[] a, int off, int len, Function fn) {
+		int end = off + len;
+		switch (fn) {
+		case SIGMOID:
+			for (int i=off; i<end; i++) {
+				a[i] = 1 / (1 + Math.exp(-a[i]));
+			}
+			break;
+		case TANH:
+			for (int i=off; i<end; i++) {
+				a[i] = ActivationFunctions.tanh(a[i]);
+			}
+			break;
+		case RELU:
+			for (int i=off; i<end; i++) {
+				a[i] = Math.max(a[i], 0.0);
+			}
+			break;
+		case LEAKY_RELU:
+			double slope = ActivationFunctions.LEAKY_RELU_SLOPE;
+			for (int i=off; i<end; i++) {
+				a[i] = Math.max(a[i], slope * a[i]);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+	
+	static void activate(float[] a, int off, int len, Function fn) {
+		int end = off + len;
+		switch (fn) {
+		case SIGMOID:
+			for (int i=off; i<end; i++) {
+				a[i] = (float) (1 / (1 + Math.exp(-a[i])));
+			}
+			break;
+		case TANH:
+			for (int i=off; i<end; i++) {
+				a[i] = (float) ActivationFunctions.tanh(a[i]);
+			}
+			break;
+		case RELU:
+			for (int i=off; i<end; i++) {
+				a[i] = Math.max(a[i], 0.0f);
+			}
+			break;
+		case LEAKY_RELU:
+			float slope = (float) ActivationFunctions.LEAKY_RELU_SLOPE;
+			for (int i=off; i<end; i++) {
+				a[i] = Math.max(a[i], slope * a[i]);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+	
+	/**
+	 * Writes the derivate of the activation function into dest, calculated from the activated values in src.
+	 */
+	static void derivate(double[] dest, int dOff, double[] src, int sOff, int len, Function fn) {
+		switch (fn) {
+		case SIGMOID:
+			for (int i=0; i<len; i++) {
+				double y = src[sOff + i];
+				dest[dOff + i] = y * (1 - y);
+			}
+			break;
+		case TANH:
+			for (int i=0; i<len; i++) {
+				double y = src[sOff + i];
+				dest[dOff + i] = 1 - y * y;
+			}
+			break;
+		case RELU:
+			for (int i=0; i<len; i++) {
+				dest[dOff + i] = src[sOff + i] > 0 ? 1 : 0;
+			}
+			break;
+		case LEAKY_RELU:
+			double slope = ActivationFunctions.LEAKY_RELU_SLOPE;
+			for (int i=0; i<len; i++) {
+				dest[dOff + i] = src[sOff + i] > 0 ? 1 : slope;
+			}
+			break;
+		default:
+			System.arraycopy(src, sOff, dest, dOff, len);
+			break;
+		}
+	}
+	
+	static void derivate(float[] dest, int dOff, float[] src, int sOff, int len, Function fn) {
+		switch (fn) {
+		case SIGMOID:
+			for (int i=0; i<len; i++) {
+				float y = src[sOff + i];
+				dest[dOff + i] = y * (1 - y);
+			}
+			break;
+		case TANH:
+			for (int i=0; i<len; i++) {
+				float y = src[sOff + i];
+				dest[dOff + i] = 1 - y * y;
+			}
+			break;
+		case RELU:
+			for (int i=0; i<len; i++) {
+				dest[dOff + i] = src[sOff + i] > 0 ? 1 : 0;
+			}
+			break;
+		case LEAKY_RELU:
+			float slope = (float) ActivationFunctions.LEAKY_RELU_SLOPE;
+			for (int i=0; i<len; i++) {
+				dest[dOff + i] = src[sOff + i] > 0 ? 1 : slope;
+			}
+			break;
+		default:
+			System.arraycopy(src, sOff, dest, dOff, len);
+			break;
+		}
+	}
+
+}
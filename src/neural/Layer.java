@@ -18,12 +18,13 @@ public class Layer {
 	private Layer layerPrev;
 	private Layer layerNext;
 	private Matrix bias;
-	private Matrix calculatedFeed;
+	private Activation activation;
+	private boolean fastMath;
 	private int index;
 	
 	public Layer(Matrix data) {
 		this.data = data;
-		this.bias = new Matrix(data.getN(), 1);
+		this.bias = new Matrix(data.getN(), 1, data.getPrecision());
 		this.bias.randomize();
 	}
 	
@@ -42,6 +43,34 @@ public class Layer {
 	public void setData(Matrix data) {
 		this.data = data;
 	}
+	
+	/**
+	 * @return The activation function of the layer. If none is set, NeuralNetwork.ACTIVATION_FUNCTION.
+	 */
+	public Activation getActivation() {
+		return this.activation == null ? NeuralNetwork.ACTIVATION_FUNCTION : this.activation;
+	}
+	
+	/**
+	 * @param activation The activation function of the layer, or null to use NeuralNetwork.ACTIVATION_FUNCTION
+	 */
+	public void setActivation(Activation activation) {
+		this.activation = activation;
+	}
+	
+	/**
+	 * @param fastMath True, if the layer uses the approximated variant of its activation function
+	 */
+	public void setFastMath(boolean fastMath) {
+		this.fastMath = fastMath;
+	}
+	
+	/**
+	 * @return The activation function used by the passes, the fast math variant if it is enabled.
+	 */
+	Activation resolveActivation() {
+		return this.fastMath ? ActivationFunctions.fast(this.getActivation()) : this.getActivation();
+	}
 
 	public Layer getLayerPrev() {
 		return layerPrev;
@@ -75,60 +104,76 @@ public class Layer {
 		this.index = index;
 	}
 	
-	public Matrix getCalculatedFeed() {
-		return calculatedFeed;
-	}
-
-	public void setCalculatedFeed(Matrix calculatedFeed) {
-		this.calculatedFeed = calculatedFeed;
-	}
-
 	/**
-	 * Feed forwards the inputs and calculates the prediction by matrix operations.
-	 * @param start True, if it is in starting stage
-	 * @param trainingData The training data
-	 * @param resultMatrix A matrix for side calculations
-	 * @return A Matrix with the predicted data
+	 * Calculates the output of the layer by matrix operations. The layer keeps no state of the pass,
+	 * the output is written into the workspace.
+	 * @param workspace Buffers of the pass
+	 * @param data The input data, read by the first layer
+	 * @param input The output of the previous layer, or null for the first layer
+	 * @return A Matrix with the output of the layer, one column per sample
 	 * @throws Exception
 	 */
-	public Matrix feedForward(boolean start, Data trainingData, Matrix resultMatrix) throws Exception {	
-		Matrix nextInput = start ? trainingData.getInputs() : resultMatrix;
-		Matrix multiplied = Matrix.multiply(this.data, nextInput);
-		multiplied.add(this.bias);
-		multiplied.activation();
-		this.calculatedFeed = multiplied;
-		
-		if (this.layerNext == null) return multiplied;
-		return this.layerNext.feedForward(false, trainingData, multiplied);
+	public Matrix feedForward(Workspace workspace, Data data, Matrix input) throws Exception {
+		Matrix calculatedFeed = workspace.getCalculatedFeed(this.index);
+		if (input == null && data.isSparse()) {
+			Matrix.gemvBiasActivate(calculatedFeed, this.data, data.getSparseInputs(), this.bias, this.resolveActivation());
+		} else {
+			Matrix.gemmBiasActivate(calculatedFeed, this.data, input == null ? data.getInputs() : input, this.bias, this.resolveActivation());
+		}
+		return calculatedFeed;
 	}
 	
 	/**
-	 * Back propagates the outputs and calculates the new network weights and biases.
-	 * @param start True, if it is in starting stage
-	 * @param output The output of the feedForward algorithm
-	 * @param loss The loss matrix
-	 * @param trainingData The training data
-	 * @return True, if back propagate ended.
+	 * Back propagates the loss of the layer and calculates the new weights and biases.
+	 * The loss of the previous layer is calculated with the weights of this step, before they are updated.
+	 * @param workspace Buffers of the pass, filled by feedForward
+	 * @param data The training data
+	 * @param loss The loss of the layer output
+	 * @param apply True, to update the weights and biases with NeuralNetwork.LEARNING_RATE, false to
+	 * leave the summed gradients of the batch in the gradients of the workspace
+	 * @return The loss of the previous layer, null for the first layer
 	 * @throws Exception
 	 */
-	public boolean backPropagate(boolean start, Matrix output, Matrix loss, Data trainingData) throws Exception {
-		Matrix gradient = Matrix.copy(start ? output : this.calculatedFeed);
-		gradient.activationDerivate();
-		gradient.multiplyByLeft(loss);
-		gradient.multiply(NeuralNetwork.LEARNING_RATE);
-	
-		Matrix transposedLayer = Matrix.copy(this.layerPrev == null ? trainingData.getInputs() : this.layerPrev.getCalculatedFeed());
-		transposedLayer.transpose();
-		Matrix delta = Matrix.multiply(gradient, transposedLayer);
-		this.data.add(delta);
-		this.bias.add(gradient);
+	public Matrix backPropagate(Workspace workspace, Data data, Matrix loss, boolean apply) throws Exception {
+		boolean first = this.index == 0;
+		Matrix gradient = workspace.getGradient(this.index);
+		Matrix.activationDerivateInto(gradient, workspace.getCalculatedFeed(this.index), this.resolveActivation());
+		Matrix.hadamardScale(gradient, gradient, loss, 1.0);
 		
-		Matrix prevT = Matrix.copy(this.data);
-		prevT.transpose();
-		Matrix nextLoss = Matrix.multiply(prevT, loss);
+		// Chain rule: the loss of the previous layer uses the weights this step was calculated with.
+		Matrix nextLoss = null;
+		if (!first) {
+			nextLoss = workspace.getNextLoss(this.index);
+			Matrix.multiplyTransA(nextLoss, this.data, gradient);
+		}
+	
+		Matrix prevOutput = first ? data.getInputs() : workspace.getCalculatedFeed(this.index - 1);
+		if (apply && gradient.getM() == 1) {
+			// Single sample: the update is added directly, without materializing the gradient
+			if (first && data.isSparse()) {
+				Matrix.ger(this.data, NeuralNetwork.LEARNING_RATE, gradient, data.getSparseInputs());
+			} else {
+				Matrix.ger(this.data, NeuralNetwork.LEARNING_RATE, gradient, prevOutput);
+			}
+			Matrix.axpy(NeuralNetwork.LEARNING_RATE, gradient, this.bias);
+		} else {
+			// Mini-batch: the gradients of the samples are summed by one GEMM
+			Matrix weightGradient = workspace.getGradients().getWeightGradient(this.index);
+			Matrix biasGradient = workspace.getGradients().getBiasGradient(this.index);
+			if (first && data.isSparse()) {
+				weightGradient.init(0.0);
+				Matrix.ger(weightGradient, 1.0, gradient, data.getSparseInputs());
+			} else {
+				Matrix.multiplyTransB(weightGradient, gradient, prevOutput);
+			}
+			Matrix.rowSumsInto(biasGradient, gradient);
 		
-		if (this.layerPrev == null) return true;
-		return this.layerPrev.backPropagate(false, null, nextLoss, trainingData);
+			if (apply) {
+				Matrix.axpy(NeuralNetwork.LEARNING_RATE / gradient.getM(), weightGradient, this.data);
+				Matrix.axpy(NeuralNetwork.LEARNING_RATE / gradient.getM(), biasGradient, this.bias);
+			}
+		}
+		return nextLoss;
 	}
 	
 	/**
@@ -0,0 +1,51 @@
+package neural;
+
+/**
+ * Calculates the learning rate of an optimizer step from the base learning rate.
+ */
+public interface LearningRateSchedule {
+	
+	/**
+	 * @param baseRate Learning rate of the optimizer
+	 * @param step Number of the step, starting with 1
+	 * @return Learning rate of the step
+	 */
+	double getLearningRate(double baseRate, long step);
+	
+	/**
+	 * Multiplies the rate by factor after every interval steps.
+	 * @param factor Factor of the decay
+	 * @param interval Number of steps between the decays
+	 * @return LearningRateSchedule object
+	 */
+	static LearningRateSchedule stepDecay(double factor, long interval) {
+		return (baseRate, step) -> baseRate * Math.pow(factor, (step - 1) / interval);
+	}
+	
+	/**
+	 * Multiplies the rate by factor after every step.
+	 * @param factor Factor of the decay
+	 * @return LearningRateSchedule object
+	 */
+	static LearningRateSchedule exponentialDecay(double factor) {
+		return (baseRate, step) -> baseRate * Math.pow(factor, step - 1);
+	}
+	
+	/**
+	 * Increases the rate linearly during the first warmupSteps steps, then decreases it along a
+	 * cosine curve to 0 at totalSteps.
+	 * @param warmupSteps Number of warmup steps
+	 * @param totalSteps Number of steps of the training
+	 * @return LearningRateSchedule object
+	 */
+	static LearningRateSchedule warmupCosine(long warmupSteps, long totalSteps) {
+		return (baseRate, step) -> {
+			if (step <= warmupSteps) {
+				return baseRate * step / Math.max(1, warmupSteps);
+			}
+			double progress = Math.min(1.0, (double) (step - warmupSteps) / Math.max(1, totalSteps - warmupSteps));
+			return baseRate * 0.5 * (1 + Math.cos(Math.PI * progress));
+		};
+	}
+
+}
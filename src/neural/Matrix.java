@@ -2,24 +2,101 @@ package neural;
 
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import org.opencv.core.Mat;
 
+/**
+ * A dense matrix stored in a single contiguous array of doubles or floats, or in a direct buffer
+ * owned by an OffHeapArena.
+ * The element (i, j) lives at offset + i * rowStride + j * colStride, so rows, columns,
+ * sub-blocks and transposes can be represented as views over the same backing array.
+ */
 public class Matrix {
 	
-	private double[][] data;
+	private static final int GEMM_BLOCK_K = 128;
+	private static final int GEMM_BLOCK_J = 512;
+	private static final ThreadLocal<int[]> SPARSE_ROWS = ThreadLocal.withInitial(() -> new int[0]);
+	
+	private Storage storage;
+	private double[] data;
+	private float[] floats;
+	private int offset;
+	private int rowStride;
+	private int colStride;
 	private int n, m;
 	
 	public Matrix(int n, int m) {
+		this(n, m, Precision.FLOAT64);
+	}
+	
+	public Matrix(int n, int m, Precision precision) {
 		this.n = n;
 		this.m = m;
-		this.data = new double[this.n][this.m];
+		this.setStorage(Storage.allocate(precision, n * m));
+		this.offset = 0;
+		this.rowStride = m;
+		this.colStride = 1;
 	}
 	
 	public Matrix(double...vals) {
-		this.data = Matrix.createVector(vals).data;
-		this.n = vals.length;
-		this.m = 1;
+		this(vals.length, 1);
+		System.arraycopy(vals, 0, this.data, 0, vals.length);
+	}
+	
+	/**
+	 * Creates a view over an existing storage.
+	 * @param storage Backing storage
+	 * @param offset Index of the (0, 0) element
+	 * @param n Number of rows
+	 * @param m Number of columns
+	 * @param rowStride Distance between two rows
+	 * @param colStride Distance between two columns
+	 */
+	private Matrix(Storage storage, int offset, int n, int m, int rowStride, int colStride) {
+		this.setStorage(storage);
+		this.offset = offset;
+		this.n = n;
+		this.m = m;
+		this.rowStride = rowStride;
+		this.colStride = colStride;
+	}
+	
+	/**
+	 * Creates a n x m matrix over an array, row by row. The array is not copied, so changes of the
+	 * matrix are visible in the array and the other way round.
+	 * @param array Elements, at least n * m
+	 * @param n Number of rows
+	 * @param m Number of columns
+	 * @return Matrix object
+	 */
+	public static Matrix wrap(double[] array, int n, int m) {
+		if (array.length < n * m) {
+			throw new IllegalArgumentException("Dimensions do not matches.");
+		}
+		return Matrix.wrap(new Storage.DoubleArray(array), n, m);
+	}
+	
+	/**
+	 * Creates a contiguous matrix over a storage.
+	 * @param storage Backing storage
+	 * @param n Number of rows
+	 * @param m Number of columns
+	 * @return Matrix object
+	 */
+	static Matrix wrap(Storage storage, int n, int m) {
+		return new Matrix(storage, 0, n, m, m, 1);
+	}
+	
+	/**
+	 * Sets the storage and caches its backing array for the kernels.
+	 * @param storage Backing storage
+	 */
+	private void setStorage(Storage storage) {
+		this.storage = storage;
+		this.data = storage instanceof Storage.DoubleArray ? ((Storage.DoubleArray) storage).array : null;
+		this.floats = storage instanceof Storage.FloatArray ? ((Storage.FloatArray) storage).array : null;
 	}
 	
 	/**
@@ -41,19 +118,11 @@ public class Matrix {
 	 */
 	public static Matrix createVector(double... array) {
 		if (array == null) return null;
-		Matrix matrix = new Matrix(array.length, 1);
-		for (int i=0; i<matrix.getN(); i++) {
-			matrix.setValue(i, 0, array[i]);
-		}
-		return matrix;
+		return new Matrix(array);
 	}
 	
 	public void init() {
-		for (int i=0; i<this.n; i++) {
-			for (int j=0; j<this.m; j++) {
-				this.data[i][j] = 0.0;
-			}
-		}
+		this.init(0.0);
 	}
 	
 	/**
@@ -61,9 +130,20 @@ public class Matrix {
 	 * @param num
 	 */
 	public void init(double num) {
+		if (this.isContiguous() && this.data != null) {
+			Arrays.fill(this.data, this.offset, this.offset + this.n * this.m, num);
+			return;
+		}
+		
+		if (this.isContiguous() && this.floats != null) {
+			Arrays.fill(this.floats, this.offset, this.offset + this.n * this.m, (float) num);
+			return;
+		}
+		
 		for (int i=0; i<this.n; i++) {
-			for (int j=0; j<this.m; j++) {
-				this.data[i][j] = num;
+			int idx = this.offset + i * this.rowStride;
+			for (int j=0; j<this.m; j++, idx += this.colStride) {
+				this.storage.set(idx, num);
 			}
 		}
 	}
@@ -74,8 +154,9 @@ public class Matrix {
 	public void randomize() {
 		Random random = new Random();
 		for (int i=0; i<this.n; i++) {
-			for (int j=0; j<this.m; j++) {
-				this.data[i][j] = random.nextDouble() * 2 - 1;
+			int idx = this.offset + i * this.rowStride;
+			for (int j=0; j<this.m; j++, idx += this.colStride) {
+				this.storage.set(idx, random.nextDouble() * 2 - 1);
 			}
 		}
 	}
@@ -87,8 +168,9 @@ public class Matrix {
 	 */
 	public void randomize(int min, int max) {
 		for (int i=0; i<this.n; i++) {
-			for (int j=0; j<this.m; j++) {
-				this.data[i][j] = Utils.random(min, max);
+			int idx = this.offset + i * this.rowStride;
+			for (int j=0; j<this.m; j++, idx += this.colStride) {
+				this.storage.set(idx, Utils.random(min, max));
 			}
 		}
 	}
@@ -98,203 +180,1206 @@ public class Matrix {
 	 * @param num
 	 */
 	public void add(double num) {
+		if (this.isContiguous() && this.data != null) {
+			Kernels.add(this.data, this.offset, this.n * this.m, num);
+			return;
+		}
+		
+		if (this.isContiguous() && this.floats != null) {
+			Kernels.add(this.floats, this.offset, this.n * this.m, (float) num);
+			return;
+		}
+		
+		Storage s = this.storage;
 		for (int i=0; i<this.n; i++) {
-			for (int j=0; j<this.m; j++) {
-				this.data[i][j] += num;
+			int idx = this.offset + i * this.rowStride;
+			for (int j=0; j<this.m; j++, idx += this.colStride) {
+				s.set(idx, s.get(idx) + num);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the parameter Matrix to the current matrix.
+	 * @param m A Matrix object
+	 * @throws Exception
+	 */
+	public void add(Matrix m) throws Exception {
+		Matrix.axpy(1.0, m, this);
+	}
+	
+	/**
+	 * Subtracts the parameter number from the elements of the matrix.
+	 * @param num
+	 */
+	public void subtract(double num) {
+		this.add(-num);
+	}
+	
+	/**
+	 * Subtract the matrices from each other
+	 * @param m1
+	 * @param m2
+	 * @return The result Matrix object
+	 * @throws Exception
+	 */
+	public static Matrix subtract(Matrix m1, Matrix m2) throws Exception {
+		if (!(m1.getN() == m2.getN() && m1.getM() == m2.getM())) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		Matrix res = new Matrix(m1.getN(), m1.getM(), m1.getPrecision());
+		Matrix.subtractInto(res, m1, m2);
+		return res;
+	}
+	
+	/**
+	 * Copies the elements of a matrix into a destination of the same size.
+	 * @param dest Destination matrix
+	 * @param src Source matrix
+	 * @throws Exception
+	 */
+	public static void copyInto(Matrix dest, Matrix src) throws Exception {
+		if (dest.n != src.n || dest.m != src.m) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		if (Matrix.denseDoubles(dest, src)) {
+			System.arraycopy(src.data, src.offset, dest.data, dest.offset, dest.n * dest.m);
+			return;
+		}
+		
+		if (Matrix.denseFloats(dest, src)) {
+			System.arraycopy(src.floats, src.offset, dest.floats, dest.offset, dest.n * dest.m);
+			return;
+		}
+		
+		for (int i=0; i<dest.n; i++) {
+			int di = dest.offset + i * dest.rowStride;
+			int si = src.offset + i * src.rowStride;
+			for (int j=0; j<dest.m; j++, di += dest.colStride, si += src.colStride) {
+				dest.storage.set(di, src.storage.get(si));
+			}
+		}
+	}
+	
+	/**
+	 * Subtracts two matrices into a destination: dest = m1 - m2.
+	 * @param dest Destination matrix
+	 * @param m1 Matrix
+	 * @param m2 Matrix
+	 * @throws Exception
+	 */
+	public static void subtractInto(Matrix dest, Matrix m1, Matrix m2) throws Exception {
+		if (m1.getN() != m2.getN() || m1.getM() != m2.getM() || dest.getN() != m1.getN() || dest.getM() != m1.getM()) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		boolean aliased = dest.storage == m2.storage;
+		if (!aliased && Matrix.denseDoubles(dest, m1) && Matrix.denseDoubles(m1, m2)) {
+			System.arraycopy(m1.data, m1.offset, dest.data, dest.offset, dest.n * dest.m);
+			Kernels.axpy(-1.0, m2.data, m2.offset, dest.data, dest.offset, dest.n * dest.m);
+			return;
+		}
+		
+		if (!aliased && Matrix.denseFloats(dest, m1) && Matrix.denseFloats(m1, m2)) {
+			System.arraycopy(m1.floats, m1.offset, dest.floats, dest.offset, dest.n * dest.m);
+			Kernels.axpy(-1.0f, m2.floats, m2.offset, dest.floats, dest.offset, dest.n * dest.m);
+			return;
+		}
+		
+		for (int i=0; i<dest.getN(); i++) {
+			for (int j=0; j<dest.getM(); j++) {
+				dest.setValue(i, j, m1.get(i, j) - m2.get(i, j));
+			}
+		}
+	}
+	
+	/**
+	 * Multiply the matrix data by a number
+	 * @param num
+	 */
+	public void multiply(double num) {
+		if (this.isContiguous() && this.data != null) {
+			Kernels.scale(this.data, this.offset, this.n * this.m, num);
+			return;
+		}
+		
+		if (this.isContiguous() && this.floats != null) {
+			Kernels.scale(this.floats, this.offset, this.n * this.m, (float) num);
+			return;
+		}
+		
+		Storage s = this.storage;
+		for (int i=0; i<this.n; i++) {
+			int idx = this.offset + i * this.rowStride;
+			for (int j=0; j<this.m; j++, idx += this.colStride) {
+				s.set(idx, s.get(idx) * num);
+			}
+		}
+	}
+	
+	/**
+	 * Multiplies the matrix by left by the input matrix one by one.
+	 * @param m Matrix
+	 * @throws Exception
+	 */
+	public void multiplyByLeft(Matrix mat) throws Exception {
+		if (this.m != mat.getM() || this.n != mat.getN()) {
+			throw new Exception("Matrix dimensions must be the same.");
+		}
+		
+		Matrix.hadamardScale(this, this, mat, 1.0);
+	}
+	
+	/**
+	 * Multiplies two matrices.
+	 * @param m1
+	 * @param m2
+	 * @return
+	 * @throws Exception
+	 */
+	public static Matrix multiply(Matrix m1, Matrix m2) throws Exception {
+		Matrix mult = new Matrix(m1.getN(), m2.getM(), m1.getPrecision());
+		Matrix.multiplyInto(mult, m1, m2);
+		return mult;
+	}
+	
+	/**
+	 * Multiplies two matrices and writes the result into an existing matrix.
+	 * The destination must not share its data with the operands.
+	 * @param dest Destination (a.n x b.m)
+	 * @param a Left operand
+	 * @param b Right operand
+	 * @throws Exception
+	 */
+	public static void multiplyInto(Matrix dest, Matrix a, Matrix b) throws Exception {
+		if (a.getM() != b.getN()) {
+			throw new Exception("Matrix outer dimensions must be equals!");
+		}
+		
+		if (dest.getN() != a.getN() || dest.getM() != b.getM()) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		if (dest.storage == a.storage || dest.storage == b.storage) {
+			throw new Exception("The destination must not share data with the operands.");
+		}
+		
+		if (Parallel.isWorthSplitting((long) a.n * a.m * b.m)) {
+			Parallel.invoke(new MultiplyTask(dest, a, b));
+		} else {
+			Matrix.multiplyKernel(dest, a, b);
+		}
+	}
+	
+	/**
+	 * Selects and runs the serial multiply kernel for the operands.
+	 * Operands sharing the same precision use the array kernels, mixed ones the generic strided kernel.
+	 * @param dest Destination
+	 * @param a Left operand
+	 * @param b Right operand
+	 */
+	private static void multiplyKernel(Matrix dest, Matrix a, Matrix b) {
+		boolean rowMajorA = a.colStride == 1 || a.m == 1;
+		boolean rowMajorB = b.colStride == 1 || b.m == 1;
+		boolean rowMajorDest = dest.colStride == 1 || dest.m == 1;
+		
+		if (a.data != null && b.data != null && dest.data != null) {
+			if (b.m == 1 && rowMajorA) {
+				Matrix.gemv(a.n, a.m, a.data, a.offset, a.rowStride, b.data, b.offset, b.rowStride, dest.data, dest.offset, dest.rowStride);
+				return;
+			}
+		
+			if (b.m == 1 && a.rowStride == 1) {
+				Matrix.gemvTransposed(a.n, a.m, a.data, a.offset, a.colStride, b.data, b.offset, b.rowStride, dest.data, dest.offset, dest.rowStride);
+				return;
+			}
+			
+			if (!rowMajorB && rowMajorA && b.rowStride == 1) {
+				Matrix.gemmDot(a.n, a.m, b.m, a.data, a.offset, a.rowStride, b.data, b.offset, b.colStride, dest.data, dest.offset, dest.rowStride, dest.colStride);
+				return;
+			}
+			
+			if (rowMajorB && rowMajorDest) {
+				dest.init(0.0);
+				Matrix.gemmBlocked(a.n, a.m, b.m, a.data, a.offset, a.rowStride, a.colStride, b.data, b.offset, b.rowStride, dest.data, dest.offset, dest.rowStride);
+				return;
+			}
+		} else if (a.floats != null && b.floats != null && dest.floats != null) {
+			if (b.m == 1 && rowMajorA) {
+				Matrix.gemv(a.n, a.m, a.floats, a.offset, a.rowStride, b.floats, b.offset, b.rowStride, dest.floats, dest.offset, dest.rowStride);
+				return;
+			}
+			
+			if (b.m == 1 && a.rowStride == 1) {
+				Matrix.gemvTransposed(a.n, a.m, a.floats, a.offset, a.colStride, b.floats, b.offset, b.rowStride, dest.floats, dest.offset, dest.rowStride);
+				return;
+			}
+			
+			if (rowMajorB && rowMajorDest) {
+				dest.init(0.0);
+				Matrix.gemmBlocked(a.n, a.m, b.m, a.floats, a.offset, a.rowStride, a.colStride, b.floats, b.offset, b.rowStride, dest.floats, dest.offset, dest.rowStride);
+				return;
+			}
+		}
+		
+		dest.init(0.0);
+		Matrix.gemmStrided(a, b, dest);
+	}
+	
+	/**
+	 * Multiplies the transpose of a by b (dest = a^T * b) without transposing a.
+	 * @param dest Destination (a.m x b.m)
+	 * @param a Left operand, used transposed
+	 * @param b Right operand
+	 * @throws Exception
+	 */
+	public static void multiplyTransA(Matrix dest, Matrix a, Matrix b) throws Exception {
+		if (b.m == 1 && a.colStride == 1 && a.n == b.n && dest.n == a.m && dest.m == 1
+				&& dest.storage != a.storage && dest.storage != b.storage && !Parallel.isWorthSplitting((long) a.n * a.m)) {
+			if (a.data != null && b.data != null && dest.data != null) {
+				Matrix.gemvTransposed(a.m, a.n, a.data, a.offset, a.rowStride, b.data, b.offset, b.rowStride, dest.data, dest.offset, dest.rowStride);
+				return;
+			}
+			
+			if (a.floats != null && b.floats != null && dest.floats != null) {
+				Matrix.gemvTransposed(a.m, a.n, a.floats, a.offset, a.rowStride, b.floats, b.offset, b.rowStride, dest.floats, dest.offset, dest.rowStride);
+				return;
+			}
+		}
+		Matrix.multiplyInto(dest, new Matrix(a.storage, a.offset, a.m, a.n, a.colStride, a.rowStride), b);
+	}
+	
+	/**
+	 * Multiplies a by the transpose of b (dest = a * b^T) without transposing b.
+	 * @param dest Destination (a.n x b.n)
+	 * @param a Left operand
+	 * @param b Right operand, used transposed
+	 * @throws Exception
+	 */
+	public static void multiplyTransB(Matrix dest, Matrix a, Matrix b) throws Exception {
+		Matrix.multiplyInto(dest, a, new Matrix(b.storage, b.offset, b.m, b.n, b.colStride, b.rowStride));
+	}
+	
+	/**
+	 * Rank-1 update of a matrix in place: a += alpha * x * y^T.
+	 * @param a Matrix which is updated (x.n x y.n)
+	 * @param alpha Scale
+	 * @param x Column vector
+	 * @param y Column vector
+	 * @throws Exception
+	 */
+	public static void ger(Matrix a, double alpha, Matrix x, Matrix y) throws Exception {
+		if (!x.isVector() || !y.isVector() || a.n != x.n || a.m != y.n) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		if (Parallel.isWorthSplitting((long) a.n * a.m)) {
+			Parallel.invoke(new GerTask(a, alpha, x, y, 0, a.n));
+		} else {
+			Matrix.gerRows(a, alpha, x, y, 0, a.n);
+		}
+	}
+	
+	/**
+	 * Rank-1 update with a sparse vector: a += alpha * x * y^T. Only the columns of the non zeros of y are touched.
+	 * @param a Matrix which is updated (x.n x y.n)
+	 * @param alpha Scale
+	 * @param x Column vector
+	 * @param y Sparse column vector
+	 * @throws Exception
+	 */
+	public static void ger(Matrix a, double alpha, Matrix x, SparseMatrix y) throws Exception {
+		if (!x.isVector() || y.getM() != 1 || a.n != x.n || a.m != y.getN()) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		int[] idx = Matrix.sparseRows(y);
+		double[] vals = y.getValues();
+		int nnz = vals.length;
+		for (int i=0; i<a.n; i++) {
+			double v = alpha * x.storage.get(x.offset + i * x.rowStride);
+			int ai = a.offset + i * a.rowStride;
+			if (a.data != null) {
+				for (int k=0; k<nnz; k++) {
+					a.data[ai + idx[k] * a.colStride] += v * vals[k];
+				}
+			} else {
+				for (int k=0; k<nnz; k++) {
+					int aik = ai + idx[k] * a.colStride;
+					a.storage.set(aik, a.storage.get(aik) + v * vals[k]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Multiplies a dense matrix by a sparse matrix: dest = A * B. Only the non zeros of B are multiplied.
+	 * @param dest Destination matrix (A.n x B.m)
+	 * @param a Dense left operand
+	 * @param b Sparse right operand
+	 * @throws Exception
+	 */
+	public static void multiplyInto(Matrix dest, Matrix a, SparseMatrix b) throws Exception {
+		if (a.m != b.getN()) {
+			throw new Exception("Matrix outer dimensions must be equals!");
+		}
+		
+		if (dest.n != a.n || dest.m != b.getM()) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		int[] rowPtr = b.getRowPtr();
+		int[] colIdx = b.getColIdx();
+		double[] vals = b.getValues();
+		int nnz = vals.length;
+		
+		if (b.getM() == 1) {
+			// Sparse vector: one gathered dot product per row of A
+			int[] rows = Matrix.sparseRows(b);
+			for (int i=0; i<a.n; i++) {
+				int ai = a.offset + i * a.rowStride;
+				double sum = 0;
+				if (a.data != null) {
+					for (int k=0; k<nnz; k++) {
+						sum += a.data[ai + rows[k] * a.colStride] * vals[k];
+					}
+				} else if (a.floats != null) {
+					for (int k=0; k<nnz; k++) {
+						sum += a.floats[ai + rows[k] * a.colStride] * vals[k];
+					}
+				} else {
+					for (int k=0; k<nnz; k++) {
+						sum += a.storage.get(ai + rows[k] * a.colStride) * vals[k];
+					}
+				}
+				dest.storage.set(dest.offset + i * dest.rowStride, sum);
+			}
+			return;
+		}
+		
+		dest.init(0.0);
+		for (int r=0; r<b.getN(); r++) {
+			int ar = a.offset + r * a.colStride;
+			for (int k=rowPtr[r]; k<rowPtr[r+1]; k++) {
+				double v = vals[k];
+				int ai = ar;
+				int ci = dest.offset + colIdx[k] * dest.colStride;
+				for (int i=0; i<a.n; i++, ai += a.rowStride, ci += dest.rowStride) {
+					dest.storage.set(ci, dest.storage.get(ci) + a.storage.get(ai) * v);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Rows of the non zeros of a sparse vector, expanded from rowPtr into a buffer of the calling
+	 * thread. The vector kernels gather the elements of a row of A at these rows.
+	 * @param vector Sparse vector
+	 * @return The row of every non zero, valid until the next call in the thread
+	 */
+	private static int[] sparseRows(SparseMatrix vector) {
+		int[] rows = SPARSE_ROWS.get();
+		if (rows.length < vector.getNonZeroCount()) {
+			rows = new int[vector.getNonZeroCount()];
+			SPARSE_ROWS.set(rows);
+		}
+		vector.expandRows(rows);
+		return rows;
+	}
+	
+	/**
+	 * Rank-1 update of the rows from (inclusive) to (exclusive).
+	 */
+	private static void gerRows(Matrix a, double alpha, Matrix x, Matrix y, int from, int to) {
+		boolean contiguous = a.colStride == 1 && y.rowStride == 1;
+		for (int i=from; i<to; i++) {
+			double v = alpha * x.storage.get(x.offset + i * x.rowStride);
+			int ai = a.offset + i * a.rowStride;
+			int yi = y.offset;
+			if (contiguous && a.data != null && y.data != null) {
+				double[] ad = a.data;
+				double[] yd = y.data;
+				for (int j=0; j<a.m; j++) {
+					ad[ai + j] += v * yd[yi + j];
+				}
+			} else if (contiguous && a.floats != null && y.floats != null) {
+				float[] ad = a.floats;
+				float[] yd = y.floats;
+				float fv = (float) v;
+				for (int j=0; j<a.m; j++) {
+					ad[ai + j] += fv * yd[yi + j];
+				}
+			} else {
+				for (int j=0; j<a.m; j++, ai += a.colStride, yi += y.rowStride) {
+					a.storage.set(ai, a.storage.get(ai) + v * y.storage.get(yi));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Matrix-vector product c = A * x for a matrix with contiguous rows.
+	 * Four rows are processed together so every loaded x value is used four times.
+	 */
+	private static void gemv(int n, int k, double[] a, int aOff, int aRs, double[] x, int xOff, int xStride, double[] c, int cOff, int cStride) {
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			int r0 = aOff + i * aRs;
+			int r1 = r0 + aRs;
+			int r2 = r1 + aRs;
+			int r3 = r2 + aRs;
+			double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			int xi = xOff;
+			for (int l=0; l<k; l++, xi += xStride) {
+				double xv = x[xi];
+				s0 += a[r0 + l] * xv;
+				s1 += a[r1 + l] * xv;
+				s2 += a[r2 + l] * xv;
+				s3 += a[r3 + l] * xv;
+			}
+			int ci = cOff + i * cStride;
+			c[ci] = s0;
+			c[ci + cStride] = s1;
+			c[ci + 2 * cStride] = s2;
+			c[ci + 3 * cStride] = s3;
+		}
+		
+		for (; i<n; i++) {
+			int r = aOff + i * aRs;
+			double s = 0;
+			int xi = xOff;
+			for (int l=0; l<k; l++, xi += xStride) {
+				s += a[r + l] * x[xi];
+			}
+			c[cOff + i * cStride] = s;
+		}
+	}
+	
+	/**
+	 * Single precision version of gemv.
+	 */
+	private static void gemv(int n, int k, float[] a, int aOff, int aRs, float[] x, int xOff, int xStride, float[] c, int cOff, int cStride) {
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			int r0 = aOff + i * aRs;
+			int r1 = r0 + aRs;
+			int r2 = r1 + aRs;
+			int r3 = r2 + aRs;
+			float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			int xi = xOff;
+			for (int l=0; l<k; l++, xi += xStride) {
+				float xv = x[xi];
+				s0 += a[r0 + l] * xv;
+				s1 += a[r1 + l] * xv;
+				s2 += a[r2 + l] * xv;
+				s3 += a[r3 + l] * xv;
+			}
+			int ci = cOff + i * cStride;
+			c[ci] = s0;
+			c[ci + cStride] = s1;
+			c[ci + 2 * cStride] = s2;
+			c[ci + 3 * cStride] = s3;
+		}
+		
+		for (; i<n; i++) {
+			int r = aOff + i * aRs;
+			float s = 0;
+			int xi = xOff;
+			for (int l=0; l<k; l++, xi += xStride) {
+				s += a[r + l] * x[xi];
+			}
+			c[cOff + i * cStride] = s;
+		}
+	}
+	
+	/**
+	 * Matrix-vector product c = A * x where A is the transpose of a matrix with contiguous rows.
+	 * Every stored row is added to the result with an axpy, so A is read sequentially.
+	 */
+	private static void gemvTransposed(int n, int k, double[] a, int aOff, int aCs, double[] x, int xOff, int xStride, double[] c, int cOff, int cStride) {
+		for (int i=0, ci=cOff; i<n; i++, ci += cStride) {
+			c[ci] = 0;
+		}
+		
+		int xi = xOff;
+		for (int l=0; l<k; l++, xi += xStride) {
+			double xv = x[xi];
+			int ai = aOff + l * aCs;
+			if (cStride == 1) {
+				for (int i=0; i<n; i++) {
+					c[cOff + i] += a[ai + i] * xv;
+				}
+			} else {
+				for (int i=0, ci=cOff; i<n; i++, ci += cStride) {
+					c[ci] += a[ai + i] * xv;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Single precision version of gemvTransposed.
+	 */
+	private static void gemvTransposed(int n, int k, float[] a, int aOff, int aCs, float[] x, int xOff, int xStride, float[] c, int cOff, int cStride) {
+		for (int i=0, ci=cOff; i<n; i++, ci += cStride) {
+			c[ci] = 0;
+		}
+		
+		int xi = xOff;
+		for (int l=0; l<k; l++, xi += xStride) {
+			float xv = x[xi];
+			int ai = aOff + l * aCs;
+			if (cStride == 1) {
+				for (int i=0; i<n; i++) {
+					c[cOff + i] += a[ai + i] * xv;
+				}
+			} else {
+				for (int i=0, ci=cOff; i<n; i++, ci += cStride) {
+					c[ci] += a[ai + i] * xv;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Product c = A * B where the rows of A and the columns of B are contiguous,
+	 * so every element of c is a dot product of two sequential ranges.
+	 */
+	private static void gemmDot(int n, int k, int p, double[] a, int aOff, int aRs, double[] b, int bOff, int bCs, double[] c, int cOff, int cRs, int cCs) {
+		for (int i=0; i<n; i++) {
+			int ai = aOff + i * aRs;
+			for (int j=0; j<p; j++) {
+				c[cOff + i * cRs + j * cCs] = Kernels.dot(a, ai, b, bOff + j * bCs, k);
+			}
+		}
+	}
+	
+	/**
+	 * Cache blocked c += A * B in i-k-j order for row-major B and C.
+	 * The k and j ranges are split into blocks so the used part of B stays in cache,
+	 * and four rows of C are updated from every loaded B value.
+	 */
+	private static void gemmBlocked(int n, int k, int p, double[] a, int aOff, int aRs, int aCs, double[] b, int bOff, int bRs, double[] c, int cOff, int cRs) {
+		for (int k0=0; k0<k; k0 += GEMM_BLOCK_K) {
+			int k1 = Math.min(k0 + GEMM_BLOCK_K, k);
+			for (int j0=0; j0<p; j0 += GEMM_BLOCK_J) {
+				int j1 = Math.min(j0 + GEMM_BLOCK_J, p);
+				int i = 0;
+				for (; i + 3 < n; i += 4) {
+					int c0 = cOff + i * cRs;
+					int c1 = c0 + cRs;
+					int c2 = c1 + cRs;
+					int c3 = c2 + cRs;
+					int a0 = aOff + i * aRs;
+					for (int l=k0; l<k1; l++) {
+						int ai = a0 + l * aCs;
+						double v0 = a[ai];
+						double v1 = a[ai + aRs];
+						double v2 = a[ai + 2 * aRs];
+						double v3 = a[ai + 3 * aRs];
+						int bi = bOff + l * bRs;
+						for (int j=j0; j<j1; j++) {
+							double bv = b[bi + j];
+							c[c0 + j] += v0 * bv;
+							c[c1 + j] += v1 * bv;
+							c[c2 + j] += v2 * bv;
+							c[c3 + j] += v3 * bv;
+						}
+					}
+				}
+				
+				for (; i<n; i++) {
+					int ci = cOff + i * cRs;
+					int a0 = aOff + i * aRs;
+					for (int l=k0; l<k1; l++) {
+						double v = a[a0 + l * aCs];
+						int bi = bOff + l * bRs;
+						for (int j=j0; j<j1; j++) {
+							c[ci + j] += v * b[bi + j];
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Single precision version of gemmBlocked.
+	 */
+	private static void gemmBlocked(int n, int k, int p, float[] a, int aOff, int aRs, int aCs, float[] b, int bOff, int bRs, float[] c, int cOff, int cRs) {
+		for (int k0=0; k0<k; k0 += GEMM_BLOCK_K) {
+			int k1 = Math.min(k0 + GEMM_BLOCK_K, k);
+			for (int j0=0; j0<p; j0 += GEMM_BLOCK_J) {
+				int j1 = Math.min(j0 + GEMM_BLOCK_J, p);
+				int i = 0;
+				for (; i + 3 < n; i += 4) {
+					int c0 = cOff + i * cRs;
+					int c1 = c0 + cRs;
+					int c2 = c1 + cRs;
+					int c3 = c2 + cRs;
+					int a0 = aOff + i * aRs;
+					for (int l=k0; l<k1; l++) {
+						int ai = a0 + l * aCs;
+						float v0 = a[ai];
+						float v1 = a[ai + aRs];
+						float v2 = a[ai + 2 * aRs];
+						float v3 = a[ai + 3 * aRs];
+						int bi = bOff + l * bRs;
+						for (int j=j0; j<j1; j++) {
+							float bv = b[bi + j];
+							c[c0 + j] += v0 * bv;
+							c[c1 + j] += v1 * bv;
+							c[c2 + j] += v2 * bv;
+							c[c3 + j] += v3 * bv;
+						}
+					}
+				}
+				
+				for (; i<n; i++) {
+					int ci = cOff + i * cRs;
+					int a0 = aOff + i * aRs;
+					for (int l=k0; l<k1; l++) {
+						float v = a[a0 + l * aCs];
+						int bi = bOff + l * bRs;
+						for (int j=j0; j<j1; j++) {
+							c[ci + j] += v * b[bi + j];
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Fallback c += A * B in i-k-j order for arbitrary strides and precisions.
+	 */
+	private static void gemmStrided(Matrix a, Matrix b, Matrix c) {
+		for (int i=0; i<a.n; i++) {
+			int ci0 = c.offset + i * c.rowStride;
+			int ai = a.offset + i * a.rowStride;
+			for (int l=0; l<a.m; l++, ai += a.colStride) {
+				double v = a.storage.get(ai);
+				int bi = b.offset + l * b.rowStride;
+				int ci = ci0;
+				for (int j=0; j<b.m; j++, bi += b.colStride, ci += c.colStride) {
+					c.storage.set(ci, c.storage.get(ci) + v * b.storage.get(bi));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Splits a multiplication into blocks of output rows or columns and runs them in parallel.
+	 */
+	private static class MultiplyTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Matrix dest, a, b;
+		
+		MultiplyTask(Matrix dest, Matrix a, Matrix b) {
+			this.dest = dest;
+			this.a = a;
+			this.b = b;
+		}
+		
+		@Override
+		protected void compute() {
+			int n = this.a.n;
+			int p = this.b.m;
+			if (!Parallel.isWorthSplitting((long) n * this.a.m * p) || (n < 8 && p < 8)) {
+				Matrix.multiplyKernel(this.dest, this.a, this.b);
+				return;
+			}
+			
+			if (n >= p) {
+				int half = (n / 2 + 3) & ~3;
+				ForkJoinTask.invokeAll(
+					new MultiplyTask(this.dest.subMatrix(0, 0, half, p), this.a.subMatrix(0, 0, half, this.a.m), this.b),
+					new MultiplyTask(this.dest.subMatrix(half, 0, n - half, p), this.a.subMatrix(half, 0, n - half, this.a.m), this.b));
+			} else {
+				int half = p / 2;
+				ForkJoinTask.invokeAll(
+					new MultiplyTask(this.dest.subMatrix(0, 0, n, half), this.a, this.b.subMatrix(0, 0, this.b.n, half)),
+					new MultiplyTask(this.dest.subMatrix(0, half, n, p - half), this.a, this.b.subMatrix(0, half, this.b.n, p - half)));
+			}
+		}
+	}
+	
+	/**
+	 * Splits a rank-1 update into blocks of rows and runs them in parallel.
+	 */
+	private static class GerTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Matrix a, x, y;
+		private final double alpha;
+		private final int from, to;
+		
+		GerTask(Matrix a, double alpha, Matrix x, Matrix y, int from, int to) {
+			this.a = a;
+			this.alpha = alpha;
+			this.x = x;
+			this.y = y;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			int rows = this.to - this.from;
+			if (rows < 8 || !Parallel.isWorthSplitting((long) rows * this.a.m)) {
+				Matrix.gerRows(this.a, this.alpha, this.x, this.y, this.from, this.to);
+				return;
+			}
+			
+			int mid = this.from + rows / 2;
+			ForkJoinTask.invokeAll(
+				new GerTask(this.a, this.alpha, this.x, this.y, this.from, mid),
+				new GerTask(this.a, this.alpha, this.x, this.y, mid, this.to));
+		}
+	}
+	
+	/**
+	 * Calculates the squared sum of a vector, only the first column of a matrix is read.
+	 * See getSquaredNorm for all elements.
+	 * @param m Matrix
+	 * @return Squared sum
+	 */
+	public static double getSquaredSum(Matrix m) {
+		double sum = 0;
+		for (int i=0; i<m.getN(); i++) {
+			double val = m.get(i, 0);
+			sum += val * val;
+		}
+		return sum;
+	}
+	
+	/**
+	 * Calculates the sum of the squares of all elements, the squared Frobenius norm.
+	 * @param m Matrix
+	 * @return Squared sum of all elements
+	 */
+	public static double getSquaredNorm(Matrix m) {
+		if (m.isContiguous() && m.data != null) {
+			return Kernels.squaredSum(m.data, m.offset, m.n * m.m);
+		}
+		
+		if (m.isContiguous() && m.floats != null) {
+			return Kernels.squaredSum(m.floats, m.offset, m.n * m.m);
+		}
+		
+		double sum = 0;
+		for (int i=0; i<m.n; i++) {
+			int idx = m.offset + i * m.rowStride;
+			for (int j=0; j<m.m; j++, idx += m.colStride) {
+				double val = m.storage.get(idx);
+				sum += val * val;
+			}
+		}
+		return sum;
+	}
+	
+	/**
+	 * Maps the current activation function
+	 */
+	public void activation() {
+		this.activation(NeuralNetwork.ACTIVATION_FUNCTION);
+	}
+	
+	/**
+	 * Maps an activation function over the matrix in place.
+	 * @param fn Activation function
+	 */
+	public void activation(Activation fn) {
+		if (this.isContiguous() && this.data != null) {
+			fn.activate(this.data, this.offset, this.n * this.m);
+			return;
+		}
+		
+		if (this.isContiguous() && this.floats != null) {
+			fn.activate(this.floats, this.offset, this.n * this.m);
+			return;
+		}
+		
+		Storage s = this.storage;
+		for (int i=0; i<this.n; i++) {
+			int idx = this.offset + i * this.rowStride;
+			for (int j=0; j<this.m; j++, idx += this.colStride) {
+				s.set(idx, fn.activate(s.get(idx)));
+			}
+		}
+	}
+	
+	/**
+	 * Maps the current derivate activation' function
+	 */
+	public void activationDerivate() {
+		try {
+			Matrix.activationDerivateInto(this, this, NeuralNetwork.ACTIVATION_FUNCTION);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Calculates dest = fn(W * x + b) without allocating.
+	 * @param dest Destination vector (W.n x 1)
+	 * @param w Weight matrix
+	 * @param x Input vector
+	 * @param b Bias vector
+	 * @param fn Activation function
+	 * @throws Exception
+	 */
+	public static void gemvBiasActivate(Matrix dest, Matrix w, Matrix x, Matrix b, Activation fn) throws Exception {
+		if (!x.isVector() || !b.isVector() || b.n != w.n) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		Matrix.multiplyInto(dest, w, x);
+		Matrix.biasActivate(dest, b, fn);
+	}
+		
+	/**
+	 * Calculates dest = fn(W * X + b) for a batch of inputs, the bias is added to every column.
+	 * @param dest Destination matrix (W.n x X.m)
+	 * @param w Weight matrix
+	 * @param x Inputs, one sample per column
+	 * @param b Bias vector
+	 * @param fn Activation function
+	 * @throws Exception
+	 */
+	public static void gemmBiasActivate(Matrix dest, Matrix w, Matrix x, Matrix b, Activation fn) throws Exception {
+		if (!b.isVector() || b.n != w.n) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		Matrix.multiplyInto(dest, w, x);
+		if (dest.m == 1) {
+			Matrix.biasActivate(dest, b, fn);
+			return;
+		}
+		
+		for (int i=0; i<dest.n; i++) {
+			double bias = b.storage.get(b.offset + i * b.rowStride);
+			int di = dest.offset + i * dest.rowStride;
+			if (dest.colStride == 1 && dest.data != null) {
+				Kernels.add(dest.data, di, dest.m, bias);
+			} else if (dest.colStride == 1 && dest.floats != null) {
+				Kernels.add(dest.floats, di, dest.m, (float) bias);
+			} else {
+				for (int j=0; j<dest.m; j++, di += dest.colStride) {
+					dest.storage.set(di, dest.storage.get(di) + bias);
+				}
 			}
 		}
+		dest.activation(fn);
+	}
+	
+	/**
+	 * Calculates dest = fn(W * x + b) for a sparse input vector in O(W.n * nnz(x)).
+	 * @param dest Destination vector (W.n x 1)
+	 * @param w Weight matrix
+	 * @param x Sparse input vector
+	 * @param b Bias vector
+	 * @param fn Activation function
+	 * @throws Exception
+	 */
+	public static void gemvBiasActivate(Matrix dest, Matrix w, SparseMatrix x, Matrix b, Activation fn) throws Exception {
+		if (!x.isVector() || !b.isVector() || b.n != w.n) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		Matrix.multiplyInto(dest, w, x);
+		Matrix.biasActivate(dest, b, fn);
+	}
+	
+	/**
+	 * Calculates dest = fn(dest + b) in place.
+	 */
+	private static void biasActivate(Matrix dest, Matrix b, Activation fn) {
+		if (Matrix.denseDoubles(dest, b)) {
+			Kernels.axpy(1.0, b.data, b.offset, dest.data, dest.offset, dest.n);
+			fn.activate(dest.data, dest.offset, dest.n);
+			return;
+		}
+		
+		if (Matrix.denseFloats(dest, b)) {
+			Kernels.axpy(1.0f, b.floats, b.offset, dest.floats, dest.offset, dest.n);
+			fn.activate(dest.floats, dest.offset, dest.n);
+			return;
+		}
+		
+		Storage d = dest.storage;
+		Storage bs = b.storage;
+		int di = dest.offset;
+		int bi = b.offset;
+		for (int i=0; i<dest.n; i++, di += dest.rowStride, bi += b.rowStride) {
+			d.set(di, fn.activate(d.get(di) + bs.get(bi)));
+		}
 	}
 	
 	/**
-	 * Adds the parameter Matrix to the current matrix.
-	 * @param m A Matrix object
+	 * Sums the columns of a matrix: dest(i) = a(i, 0) + ... + a(i, m - 1).
+	 * @param dest Destination vector (a.n x 1)
+	 * @param a Matrix
 	 * @throws Exception
 	 */
-	public void add(Matrix m) throws Exception {
-		if (!(m.getN() == this.n && m.getM() == this.m)) {
+	public static void rowSumsInto(Matrix dest, Matrix a) throws Exception {
+		if (!dest.isVector() || dest.n != a.n) {
 			throw new Exception("Dimensions do not matches.");
 		}
 		
-		for (int i=0; i<this.n; i++) {
-			for (int j=0; j<this.m; j++) {
-				this.data[i][j] += m.get(i, j);
+		for (int i=0; i<a.n; i++) {
+			int ai = a.offset + i * a.rowStride;
+			double sum = 0;
+			for (int j=0; j<a.m; j++, ai += a.colStride) {
+				sum += a.storage.get(ai);
 			}
+			dest.storage.set(dest.offset + i * dest.rowStride, sum);
 		}
 	}
 	
 	/**
-	 * Subtracts the parameter number from the elements of the matrix.
-	 * @param num
+	 * Calculates y += alpha * x.
+	 * @param alpha Scale of x
+	 * @param x Matrix
+	 * @param y Matrix which is updated
+	 * @throws Exception
 	 */
-	public void subtract(double num) {
-		for (int i=0; i<this.n; i++) {
-			for (int j=0; j<this.m; j++) {
-				this.data[i][j] -= num;
+	public static void axpy(double alpha, Matrix x, Matrix y) throws Exception {
+		if (x.n != y.n || x.m != y.m) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		if (Matrix.denseDoubles(x, y)) {
+			Kernels.axpy(alpha, x.data, x.offset, y.data, y.offset, y.n * y.m);
+			return;
+		}
+		
+		if (Matrix.denseFloats(x, y)) {
+			Kernels.axpy((float) alpha, x.floats, x.offset, y.floats, y.offset, y.n * y.m);
+			return;
+		}
+		
+		Storage ys = y.storage;
+		Storage xs = x.storage;
+		for (int i=0; i<y.n; i++) {
+			int yi = y.offset + i * y.rowStride;
+			int xi = x.offset + i * x.rowStride;
+			for (int j=0; j<y.m; j++, yi += y.colStride, xi += x.colStride) {
+				ys.set(yi, ys.get(yi) + alpha * xs.get(xi));
 			}
 		}
 	}
 	
 	/**
-	 * Subtract the matrices from each other
-	 * @param m1
-	 * @param m2
-	 * @return The result Matrix object
+	 * Calculates dest = alpha * (a * b) element by element. The destination may be one of the operands.
+	 * @param dest Destination
+	 * @param a Matrix
+	 * @param b Matrix
+	 * @param alpha Scale
 	 * @throws Exception
 	 */
-	public static Matrix subtract(Matrix m1, Matrix m2) throws Exception {
-		if (!(m1.getN() == m2.getN() && m1.getM() == m2.getM())) {
+	public static void hadamardScale(Matrix dest, Matrix a, Matrix b, double alpha) throws Exception {
+		if (a.n != b.n || a.m != b.m || dest.n != a.n || dest.m != a.m) {
 			throw new Exception("Dimensions do not matches.");
 		}
 		
-		Matrix res = new Matrix(m1.getN(), 1);
+		if (Matrix.denseDoubles(dest, a) && Matrix.denseDoubles(a, b)) {
+			Kernels.hadamard(dest.data, dest.offset, a.data, a.offset, b.data, b.offset, dest.n * dest.m, alpha);
+			return;
+		}
 		
-		for (int i=0; i<res.getN(); i++) {
-			for (int j=0; j<res.getM(); j++) {
-				res.setValue(i, j, m1.get(i, j) - m2.get(i, j));
-			}
+		if (Matrix.denseFloats(dest, a) && Matrix.denseFloats(a, b)) {
+			Kernels.hadamard(dest.floats, dest.offset, a.floats, a.offset, b.floats, b.offset, dest.n * dest.m, (float) alpha);
+			return;
 		}
 		
-		return res;
-	}
-	
-	/**
-	 * Multiply the matrix data by a number
-	 * @param num
-	 */
-	public void multiply(double num) {
-		for (int i=0; i<this.n; i++) {
-			for (int j=0; j<this.m; j++) {
-				this.data[i][j] *= num;
+		for (int i=0; i<dest.n; i++) {
+			int di = dest.offset + i * dest.rowStride;
+			int ai = a.offset + i * a.rowStride;
+			int bi = b.offset + i * b.rowStride;
+			for (int j=0; j<dest.m; j++, di += dest.colStride, ai += a.colStride, bi += b.colStride) {
+				dest.storage.set(di, alpha * a.storage.get(ai) * b.storage.get(bi));
 			}
 		}
 	}
 	
 	/**
-	 * Multiplies the matrix by left by the input matrix one by one.
-	 * @param m Matrix
+	 * Fused momentum update of a parameter, see Optimizer.Momentum.
+	 * @param p Parameter
+	 * @param g Gradient
+	 * @param v Velocity
+	 * @param scale Scale of the gradient
+	 * @param rate Learning rate
+	 * @param momentum Momentum
+	 * @param nesterov True, for Nesterov momentum
 	 * @throws Exception
 	 */
-	public void multiplyByLeft(Matrix mat) throws Exception {
-		if (this.m != mat.getM() || this.n != mat.getN()) {
-			throw new Exception("Matrix dimensions must be the same.");
+	static void momentumStep(Matrix p, Matrix g, Matrix v, double scale, double rate, double momentum, boolean nesterov) throws Exception {
+		Matrix.checkSameShape(p, g, v);
+		if (Matrix.denseDoubles(p, g) && Matrix.denseDoubles(v, v)) {
+			Kernels.momentum(p.data, p.offset, g.data, g.offset, v.data, v.offset, p.n * p.m, scale, rate, momentum, nesterov);
+			return;
 		}
 		
-		for (int i=0; i<this.n; i++) {
-			for (int j=0; j<this.m; j++) {
-				this.data[i][j] *= mat.get(i, j);
+		if (Matrix.denseFloats(p, g) && Matrix.denseFloats(v, v)) {
+			Kernels.momentum(p.floats, p.offset, g.floats, g.offset, v.floats, v.offset, p.n * p.m, (float) scale, (float) rate, (float) momentum, nesterov);
+			return;
+		}
+		
+		for (int i=0; i<p.n; i++) {
+			for (int j=0; j<p.m; j++) {
+				int pi = p.offset + i * p.rowStride + j * p.colStride;
+				int vi = v.offset + i * v.rowStride + j * v.colStride;
+				double gij = scale * g.storage.get(g.offset + i * g.rowStride + j * g.colStride);
+				double vij = momentum * v.storage.get(vi) + gij;
+				v.storage.set(vi, vij);
+				p.storage.set(pi, p.storage.get(pi) + rate * (nesterov ? gij + momentum * vij : vij));
 			}
 		}
 	}
 	
 	/**
-	 * Multiplies two matrices.
-	 * @param m1
-	 * @param m2
-	 * @return
+	 * Fused RMSProp update of a parameter, see Optimizer.RMSProp.
+	 * @param p Parameter
+	 * @param g Gradient
+	 * @param sq Moving average of the squared gradient
+	 * @param scale Scale of the gradient
+	 * @param rate Learning rate
+	 * @param decay Decay of the moving average
+	 * @param epsilon Term added to the root for numerical stability
 	 * @throws Exception
 	 */
-	public static Matrix multiply(Matrix m1, Matrix m2) throws Exception {
-		if (m1.getM() != m2.getN()) {
-			throw new Exception("Matrix outer dimensions must be equals!");
+	static void rmsPropStep(Matrix p, Matrix g, Matrix sq, double scale, double rate, double decay, double epsilon) throws Exception {
+		Matrix.checkSameShape(p, g, sq);
+		if (Matrix.denseDoubles(p, g) && Matrix.denseDoubles(sq, sq)) {
+			Kernels.rmsProp(p.data, p.offset, g.data, g.offset, sq.data, sq.offset, p.n * p.m, scale, rate, decay, epsilon);
+			return;
 		}
 		
-		Matrix mult = new Matrix(m1.getN(), m2.getM());
+		if (Matrix.denseFloats(p, g) && Matrix.denseFloats(sq, sq)) {
+			Kernels.rmsProp(p.floats, p.offset, g.floats, g.offset, sq.floats, sq.offset, p.n * p.m, (float) scale, (float) rate, (float) decay, (float) epsilon);
+			return;
+		}
 		
-		for (int i=0; i<mult.getN(); i++) {
-			for (int j=0; j<mult.getM(); j++) {
-				double[] row = Matrix.getRow(m1, i);
-				double[] col = Matrix.getCol(m2, j);
-				double val = Matrix.addRowAndCol(row, col);
-				mult.setValue(i, j, val);
+		for (int i=0; i<p.n; i++) {
+			for (int j=0; j<p.m; j++) {
+				int pi = p.offset + i * p.rowStride + j * p.colStride;
+				int si = sq.offset + i * sq.rowStride + j * sq.colStride;
+				double gij = scale * g.storage.get(g.offset + i * g.rowStride + j * g.colStride);
+				double sij = decay * sq.storage.get(si) + (1 - decay) * gij * gij;
+				sq.storage.set(si, sij);
+				p.storage.set(pi, p.storage.get(pi) + rate * gij / (Math.sqrt(sij) + epsilon));
 			}
 		}
-		return mult;
 	}
 	
 	/**
-	 * Calculates the squared sum of the input Matrix
-	 * @param m Matrix
-	 * @return Squared sum
+	 * Fused Adam update of a parameter, see Optimizer.Adam.
+	 * @param p Parameter
+	 * @param g Gradient
+	 * @param m First moment
+	 * @param v Second moment
+	 * @param scale Scale of the gradient
+	 * @param rate Bias corrected learning rate
+	 * @param beta1 Decay of the first moment
+	 * @param beta2 Decay of the second moment
+	 * @param epsilon Term added to the root for numerical stability
+	 * @throws Exception
 	 */
-	public static double getSquaredSum(Matrix m) {
-		double sum = 0;
-		for (int i=0; i<m.getN(); i++) {
-			sum += Math.pow(m.get(i, 0), 2);
+	static void adamStep(Matrix p, Matrix g, Matrix m, Matrix v, double scale, double rate, double beta1, double beta2, double epsilon) throws Exception {
+		Matrix.checkSameShape(p, g, m);
+		Matrix.checkSameShape(p, g, v);
+		if (Matrix.denseDoubles(p, g) && Matrix.denseDoubles(m, v) && m.offset == v.offset) {
+			Kernels.adam(p.data, p.offset, g.data, g.offset, m.data, v.data, m.offset, p.n * p.m, scale, rate, beta1, beta2, epsilon);
+			return;
+		}
+		
+		if (Matrix.denseFloats(p, g) && Matrix.denseFloats(m, v) && m.offset == v.offset) {
+			Kernels.adam(p.floats, p.offset, g.floats, g.offset, m.floats, v.floats, m.offset, p.n * p.m, (float) scale, (float) rate, (float) beta1, (float) beta2, (float) epsilon);
+			return;
+		}
+		
+		for (int i=0; i<p.n; i++) {
+			for (int j=0; j<p.m; j++) {
+				int pi = p.offset + i * p.rowStride + j * p.colStride;
+				int mi = m.offset + i * m.rowStride + j * m.colStride;
+				int vi = v.offset + i * v.rowStride + j * v.colStride;
+				double gij = scale * g.storage.get(g.offset + i * g.rowStride + j * g.colStride);
+				double mij = beta1 * m.storage.get(mi) + (1 - beta1) * gij;
+				double vij = beta2 * v.storage.get(vi) + (1 - beta2) * gij * gij;
+				m.storage.set(mi, mij);
+				v.storage.set(vi, vij);
+				p.storage.set(pi, p.storage.get(pi) + rate * mij / (Math.sqrt(vij) + epsilon));
+			}
 		}
-		return sum;
 	}
 	
-	/**
-	 * Maps the current activation function
-	 */
-	public void activation() {
-		for (int i=0; i<this.n; i++) {
-			for (int j=0; j<this.m; j++) {
-				switch (NeuralNetwork.ACTIVATION_FUNCTION) {
-				case SIGMOID:
-					this.data[i][j] = ActivationFunctions.sigmoid(this.data[i][j]);
-					break;
-				case TANH:
-					this.data[i][j] = ActivationFunctions.tanh(this.data[i][j]);
-					break;
-				default:
-					break;
-				}
-			}
+	private static void checkSameShape(Matrix a, Matrix b, Matrix c) throws Exception {
+		if (a.n != b.n || a.m != b.m || a.n != c.n || a.m != c.m) {
+			throw new Exception("Dimensions do not matches.");
 		}
 	}
 	
 	/**
-	 * Maps the current derivate activation' function
+	 * Writes the derivate of the activation function of src into dest. The destination may be src.
+	 * @param dest Destination
+	 * @param src Activated values
+	 * @param fn Activation function
+	 * @throws Exception
 	 */
-	public void activationDerivate() {
-		for (int i=0; i<this.n; i++) {
-			for (int j=0; j<this.m; j++) {
-				switch (NeuralNetwork.ACTIVATION_FUNCTION) {
-				case SIGMOID:
-					this.data[i][j] = ActivationFunctions.dsigmoid(this.data[i][j]);
-					break;
-				case TANH:
-					this.data[i][j] = ActivationFunctions.dtanh(this.data[i][j]);
-					break;
-				default:
-					break;
-				}
+	public static void activationDerivateInto(Matrix dest, Matrix src, Activation fn) throws Exception {
+		if (dest.n != src.n || dest.m != src.m) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		if (Matrix.denseDoubles(dest, src)) {
+			fn.derivate(dest.data, dest.offset, src.data, src.offset, dest.n * dest.m);
+			return;
+		}
+		
+		if (Matrix.denseFloats(dest, src)) {
+			fn.derivate(dest.floats, dest.offset, src.floats, src.offset, dest.n * dest.m);
+			return;
+		}
+		
+		Storage d = dest.storage;
+		Storage s = src.storage;
+		for (int i=0; i<dest.n; i++) {
+			int di = dest.offset + i * dest.rowStride;
+			int si = src.offset + i * src.rowStride;
+			for (int j=0; j<dest.m; j++, di += dest.colStride, si += src.colStride) {
+				d.set(di, fn.derivate(s.get(si)));
 			}
 		}
 	}
 	
 	/**
-	 * Transposes the matrix
+	 * Transposes the matrix. Only the strides are swapped, the data is not moved.
 	 */
 	public void transpose() {
-		Matrix newMatrix = new Matrix(this.m, this.n);
-		for (int i=0; i<newMatrix.getM(); i++) {
-			for (int j=0; j<newMatrix.getN(); j++) {
-				newMatrix.setValue(j, i, this.data[i][j]);
-			}
-		}
-		this.data = newMatrix.data;
 		int tmp = this.n;
 		this.n = this.m;
 		this.m = tmp;
+		tmp = this.rowStride;
+		this.rowStride = this.colStride;
+		this.colStride = tmp;
 	}
 	
 	/**
 	 * Transposes the matrix (static)
 	 */
 	public static Matrix transpose(Matrix m) {
-		Matrix newMatrix = new Matrix(m.getM(), m.getN());
-		for (int i=0; i<newMatrix.getM(); i++) {
-			for (int j=0; j<newMatrix.getN(); j++) {
-				newMatrix.setValue(j, i, m.get(i, j));
-			}
-		}
-		return newMatrix;
+		return new Matrix(m.storage, m.offset, m.m, m.n, m.colStride, m.rowStride).copy();
 	}
 	
 	public void setValue(int n, int m, double val) {
-		this.data[n][m] = val;
+		this.storage.set(this.offset + n * this.rowStride + m * this.colStride, val);
 	}
 	
 	/**
@@ -303,7 +1388,7 @@ public class Matrix {
 	public void print() {
 		for (int i=0; i<this.n; i++) {
 			for (int j=0; j<this.m; j++) {
-				System.out.printf("%.4f\t", this.data[i][j]);
+				System.out.printf("%.4f\t", this.get(i, j));
 			}
 			
 			System.out.print("\n");
@@ -323,7 +1408,7 @@ public class Matrix {
 	public void print(int prec) {
 		for (int i=0; i<this.n; i++) {
 			for (int j=0; j<this.m; j++) {
-				System.out.printf("%." + prec + "f\t", this.data[i][j]);
+				System.out.printf("%." + prec + "f\t", this.get(i, j));
 			}
 			System.out.print("\n");
 		}
@@ -337,7 +1422,7 @@ public class Matrix {
 		String shading = " .:-=+*#%@";
 		for (int i=0; i<this.n; i++) {
 			for (int j=0; j<this.m; j++) {
-				double shadeValue = this.data[i][j];
+				double shadeValue = this.get(i, j);
 				System.out.print(shading.charAt((int) Math.floor(shadeValue * 9)));
 			}
 			System.out.print("\n");
@@ -373,6 +1458,119 @@ public class Matrix {
 		return col;
 	}
 	
+	/**
+	 * Copies the elements of a matrix into a column, row by row.
+	 * @param index Index of the column
+	 * @param values Matrix with n elements
+	 * @throws Exception
+	 */
+	public void setCol(int index, Matrix values) throws Exception {
+		if (values.n * values.m != this.n) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		int idx = this.offset + index * this.colStride;
+		for (int i=0; i<values.n; i++) {
+			int vi = values.offset + i * values.rowStride;
+			for (int j=0; j<values.m; j++, vi += values.colStride, idx += this.rowStride) {
+				this.storage.set(idx, values.storage.get(vi));
+			}
+		}
+	}
+	
+	/**
+	 * Copies a sparse vector into a column.
+	 * @param index Index of the column
+	 * @param values Sparse vector with n elements
+	 * @throws Exception
+	 */
+	public void setCol(int index, SparseMatrix values) throws Exception {
+		if (values.getM() != 1 || values.getN() != this.n) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		int col = this.offset + index * this.colStride;
+		for (int i=0; i<this.n; i++) {
+			this.storage.set(col + i * this.rowStride, 0);
+		}
+		int[] rowPtr = values.getRowPtr();
+		double[] vals = values.getValues();
+		for (int i=0; i<this.n; i++) {
+			if (rowPtr[i] < rowPtr[i+1]) {
+				this.storage.set(col + i * this.rowStride, vals[rowPtr[i]]);
+			}
+		}
+	}
+	
+	/**
+	 * Returns a row of the matrix as a 1 x m view. The view shares the data with this matrix.
+	 * @param index Row index
+	 * @return Row view
+	 */
+	public Matrix getRowView(int index) {
+		return new Matrix(this.storage, this.offset + index * this.rowStride, 1, this.m, this.rowStride, this.colStride);
+	}
+	
+	/**
+	 * Returns a column of the matrix as an n x 1 view. The view shares the data with this matrix.
+	 * @param index Column index
+	 * @return Column view
+	 */
+	public Matrix getColView(int index) {
+		return new Matrix(this.storage, this.offset + index * this.colStride, this.n, 1, this.rowStride, this.colStride);
+	}
+	
+	/**
+	 * Returns a sub-block of the matrix. The view shares the data with this matrix.
+	 * @param row First row of the block
+	 * @param col First column of the block
+	 * @param rows Number of rows
+	 * @param cols Number of columns
+	 * @return Sub-block view
+	 */
+	public Matrix subMatrix(int row, int col, int rows, int cols) {
+		if (row < 0 || col < 0 || row + rows > this.n || col + cols > this.m) {
+			throw new IndexOutOfBoundsException("Block is out of the matrix bounds.");
+		}
+		return new Matrix(this.storage, this.offset + row * this.rowStride + col * this.colStride, rows, cols, this.rowStride, this.colStride);
+	}
+	
+	/**
+	 * Reshapes the matrix. If the data is contiguous the result shares it with this matrix,
+	 * otherwise the data is copied first.
+	 * @param n Number of rows
+	 * @param m Number of columns
+	 * @return Reshaped Matrix object
+	 */
+	public Matrix reshape(int n, int m) {
+		if (n * m != this.n * this.m) {
+			throw new IllegalArgumentException("Dimensions do not matches.");
+		}
+		Matrix source = this.isContiguous() ? this : this.copy();
+		return new Matrix(source.storage, source.offset, n, m, m, 1);
+	}
+	
+	/**
+	 * @return True, if both matrices are contiguous double precision matrices
+	 */
+	private static boolean denseDoubles(Matrix a, Matrix b) {
+		return a.data != null && b.data != null && a.isContiguous() && b.isContiguous();
+	}
+	
+	/**
+	 * @return True, if both matrices are contiguous single precision matrices
+	 */
+	private static boolean denseFloats(Matrix a, Matrix b) {
+		return a.floats != null && b.floats != null && a.isContiguous() && b.isContiguous();
+	}
+	
+	/**
+	 * @return True, if the elements are laid out row by row without gaps
+	 */
+	public boolean isContiguous() {
+		return (this.m <= 1 || this.colStride == 1) && (this.n <= 1 || this.rowStride == this.m);
+	}
+	
 	/**
 	 * Helper function for the matrix multiplication.
 	 * @param row Matrix row values
@@ -380,11 +1578,7 @@ public class Matrix {
 	 * @return The calculated result
 	 */
 	public static double addRowAndCol(double[] row, double[] col) {
-		double ret = 0;
-		for (int i=0; i<row.length; i++) {
-			ret += row[i] * col[i];
-		}
-		return ret;
+		return Kernels.dot(row, 0, col, 0, row.length);
 	}
 	
 	/**
@@ -393,21 +1587,70 @@ public class Matrix {
 	 * @return Matrix object
 	 */
 	public static Matrix copy(Matrix m) {
-		Matrix cop = new Matrix(m.getN(), m.getM());
-		cop.setData(m.getData());
-		return cop;
+		return m.copy();
 	}
 	
 	/**
-	 * Copies the Matrix
+	 * Copies the Matrix. The copy is always contiguous and keeps the precision.
 	 * @return Matrix object
 	 */
 	public Matrix copy() {
-		Matrix cop = new Matrix(this.n, this.m);
-		cop.setData(this.data);
+		return this.toPrecision(this.getPrecision(), true);
+	}
+	
+	/**
+	 * Converts the Matrix to another precision. If the precision is the same, the matrix itself is returned.
+	 * @param precision Target precision
+	 * @return Matrix object
+	 */
+	public Matrix toPrecision(Precision precision) {
+		return this.toPrecision(precision, false);
+	}
+	
+	private Matrix toPrecision(Precision precision, boolean forceCopy) {
+		if (!forceCopy && precision == this.getPrecision()) {
+			return this;
+		}
+		
+		Matrix cop = new Matrix(this.n, this.m, precision);
+		if (this.isContiguous() && this.data != null && cop.data != null) {
+			System.arraycopy(this.data, this.offset, cop.data, 0, this.n * this.m);
+			return cop;
+		}
+		
+		if (this.isContiguous() && this.floats != null && cop.floats != null) {
+			System.arraycopy(this.floats, this.offset, cop.floats, 0, this.n * this.m);
+			return cop;
+		}
+		
+		this.copyElementsTo(cop);
+		return cop;
+	}
+	
+	/**
+	 * Copies the Matrix into an off-heap arena. The copy is contiguous and keeps the precision.
+	 * @param arena The owner of the copy
+	 * @return Matrix object
+	 */
+	public Matrix copy(OffHeapArena arena) {
+		Matrix cop = arena.allocate(this.n, this.m, this.getPrecision());
+		this.copyElementsTo(cop);
 		return cop;
 	}
 	
+	/**
+	 * Copies the elements row by row into a contiguous matrix of the same size.
+	 */
+	private void copyElementsTo(Matrix cop) {
+		int index = cop.offset;
+		for (int i=0; i<this.n; i++) {
+			int idx = this.offset + i * this.rowStride;
+			for (int j=0; j<this.m; j++, idx += this.colStride) {
+				cop.storage.set(index++, this.storage.get(idx));
+			}
+		}
+	}
+	
 	/**
 	 * Creates a Matrix object from an OpenCV Mat object
 	 * @param mat OpenCV Mat object
@@ -425,20 +1668,12 @@ public class Matrix {
 	}
 	
 	/**
-	 * Creates a vector from a matrix
+	 * Creates a vector from a matrix. The vector shares the data with the matrix if it is contiguous.
 	 * @param matrix Matrix
 	 * @return A vector
 	 */
 	public static Matrix createVectorFromMatrix(Matrix matrix) {
-		Matrix m = new Matrix(matrix.getM() * matrix.getN(), 1);
-		int index = 0;
-		for (int i=0; i<matrix.getN(); i++) {
-			for (int j=0; j<matrix.getM(); j++) {
-				m.setValue(index, 0, matrix.get(i, j));
-				index++;
-			}
-		}
-		return m;
+		return matrix.reshape(matrix.getElementsCount(), 1);
 	}
 	
 	/**
@@ -457,8 +1692,9 @@ public class Matrix {
 		int index = -1;
 		double max = Double.MIN_VALUE;
 		for (int i=0; i<this.n; i++) {
-			if (this.data[i][0] > max) {
-				max = this.data[i][0];
+			double val = this.storage.get(this.offset + i * this.rowStride);
+			if (val > max) {
+				max = val;
 				index = i;
 			}
 		}
@@ -472,7 +1708,7 @@ public class Matrix {
 	 * @return A Matrix object
 	 */
 	public static Matrix decrease(Matrix m, int decrease) {
-		Matrix mat = new Matrix(m.getN()/decrease, m.getM()/decrease);
+		Matrix mat = new Matrix(m.getN()/decrease, m.getM()/decrease, m.getPrecision());
 		for (int i=0; i<mat.getN(); i++) {
 			for (int j=0; j<mat.getM(); j++) {
 				mat.setValue(i, j, m.get(i*decrease, j*decrease));
@@ -493,7 +1729,7 @@ public class Matrix {
 			throw new Exception("The input matrix must be one dimensional");
 		}
 		
-		Matrix mat = new Matrix(m.getN()/decrease, 1);
+		Matrix mat = new Matrix(m.getN()/decrease, 1, m.getPrecision());
 		for (int i=0; i<mat.getN(); i++) {
 			mat.setValue(i, 0, m.get(i*decrease, 0));
 		}
@@ -501,30 +1737,52 @@ public class Matrix {
 	}
 	
 	/**
-	 * Creates a Matrix object from a double list
+	 * Creates a Matrix object from a double list. The list is used as the backing array, it is not copied.
 	 * @param n Number of rows
 	 * @param m Number of columns
-	 * @param list
+	 * @param list Row-major values
 	 * @return A Matrix object
 	 */
 	public static Matrix fromList(int n, int m, double[] list) {
-		Matrix mat = new Matrix(n, m);
-		int index = 0;
-		for (int i=0; i<mat.getN(); i++) {
-			for (int j=0; j<mat.getM(); j++) {
-				mat.setValue(i, j, list[index]);
-				index++;
-			}
+		if (list.length < n * m) {
+			throw new IllegalArgumentException("The list is shorter than the matrix.");
 		}
-		return mat;
+		return new Matrix(new Storage.DoubleArray(list), 0, n, m, m, 1);
+	}
+	
+	/**
+	 * Creates a single precision Matrix object from a float list. The list is used as the backing array, it is not copied.
+	 * @param n Number of rows
+	 * @param m Number of columns
+	 * @param list Row-major values
+	 * @return A Matrix object
+	 */
+	public static Matrix fromList(int n, int m, float[] list) {
+		if (list.length < n * m) {
+			throw new IllegalArgumentException("The list is shorter than the matrix.");
+		}
+		return new Matrix(new Storage.FloatArray(list), 0, n, m, m, 1);
 	}
 	
+	/**
+	 * Creates a Matrix object from a vector. The result shares the data with the vector if it is contiguous.
+	 * @param vec Vector
+	 * @param n Number of rows
+	 * @param m Number of columns
+	 * @return A Matrix object
+	 * @throws Exception
+	 */
 	public static Matrix createMatrixFromVector(Matrix vec, int n, int m) throws Exception {
 		if (!vec.isVector()) {
 			throw new Exception("Matrix must be one dimensional vector");
 		}
 		
-		return Matrix.fromList(n, m, Matrix.getCol(vec, 0));
+		if (vec.getN() < n * m) {
+			throw new Exception("Dimensions do not matches.");
+		}
+		
+		Matrix source = vec.isContiguous() ? vec : vec.copy();
+		return new Matrix(source.storage, source.offset, n, m, m, 1);
 	}
 	
 	/**
@@ -533,9 +1791,11 @@ public class Matrix {
 	public double getMaxValue() {
 		double max = Double.MIN_VALUE;
 		for (int i=0; i<this.n; i++) {
-			for (int j=0; j<this.m; j++) {
-				if (this.data[i][j] > max) {
-					max = this.data[i][j];
+			int idx = this.offset + i * this.rowStride;
+			for (int j=0; j<this.m; j++, idx += this.colStride) {
+				double val = this.storage.get(idx);
+				if (val > max) {
+					max = val;
 				}
 			}
 		}
@@ -547,23 +1807,72 @@ public class Matrix {
 	 */
 	public void optimize() {
 		double max = this.getMaxValue();
+		Storage s = this.storage;
 		for (int i=0; i<this.n; i++) {
-			for (int j=0; j<this.m; j++) {
-				this.data[i][j] /= max;
+			int idx = this.offset + i * this.rowStride;
+			for (int j=0; j<this.m; j++, idx += this.colStride) {
+				s.set(idx, s.get(idx) / max);
 			}
 		}
 	}
 		
-	public double[][] getData() {
+	/**
+	 * @return The backing array of an on-heap double precision matrix, otherwise null. Use the offset and the strides to address it.
+	 */
+	public double[] getData() {
 		return this.data;
 	}
 	
-	public double get(int i, int j) {
-		return this.data[i][j];
+	/**
+	 * @return The backing array of an on-heap single precision matrix, otherwise null. Use the offset and the strides to address it.
+	 */
+	public float[] getFloatData() {
+		return this.floats;
+	}
+	
+	/**
+	 * @return True, if the values are stored in a direct buffer of an OffHeapArena
+	 */
+	public boolean isOffHeap() {
+		return this.storage instanceof Storage.OffHeapDoubles || this.storage instanceof Storage.OffHeapFloats;
+	}
+	
+	public Precision getPrecision() {
+		return this.storage.getPrecision();
+	}
+	
+	public int getOffset() {
+		return this.offset;
 	}
 
+	public int getRowStride() {
+		return this.rowStride;
+	}
+	
+	public int getColStride() {
+		return this.colStride;
+	}
+	
+	public double get(int i, int j) {
+		return this.storage.get(this.offset + i * this.rowStride + j * this.colStride);
+	}
+	
+	/**
+	 * Replaces the matrix data with the values of a two dimensional array. The precision is kept.
+	 * @param data Input
+	 */
 	public void setData(double[][] data) {
-		this.data = data;
+		this.n = data.length;
+		this.m = data.length == 0 ? 0 : data[0].length;
+		this.setStorage(Storage.allocate(this.getPrecision(), this.n * this.m));
+		this.offset = 0;
+		this.rowStride = this.m;
+		this.colStride = 1;
+		for (int i=0; i<this.n; i++) {
+			for (int j=0; j<this.m; j++) {
+				this.storage.set(i * this.m + j, data[i][j]);
+			}
+		}
 	}
 
 	public int getN() {
@@ -601,13 +1910,57 @@ public class Matrix {
 	}
 	
 	/**
-	 * Convert the matrix into a single line text.
+	 * Convert the matrix into a single line text. Single precision values are written as floats.
 	 * @return Converted text
 	 */
 	public String toLine() {
-		Matrix m = Matrix.transpose(Matrix.createVectorFromMatrix(this));
-		double[] arr = Matrix.getRow(m, 0);
-		return Arrays.toString(arr).replace("[", "").replace("]", "").replaceAll(" ", "");
+		boolean single = this.getPrecision() == Precision.FLOAT32;
+		StringBuilder line = new StringBuilder();
+		for (int i=0; i<this.n; i++) {
+			for (int j=0; j<this.m; j++) {
+				if (line.length() > 0) {
+					line.append(',');
+				}
+				double val = this.get(i, j);
+				line.append(single ? Float.toString((float) val) : Double.toString(val));
+			}
+		}
+		return line.toString();
+	}
+	
+	/**
+	 * Creates a Matrix object from a single line text written by toLine.
+	 * @param n Number of rows
+	 * @param m Number of columns
+	 * @param line Comma separated values
+	 * @param precision Precision of the Matrix
+	 * @return A Matrix object
+	 */
+	public static Matrix fromLine(int n, int m, String line, Precision precision) {
+		String[] parts = line.split(",");
+		if (precision == Precision.FLOAT32) {
+			float[] values = new float[parts.length];
+			for (int i=0; i<parts.length; i++) {
+				values[i] = Float.parseFloat(parts[i]);
+			}
+			return Matrix.fromList(n, m, values);
+		}
+		
+		double[] values = new double[parts.length];
+		for (int i=0; i<parts.length; i++) {
+			values[i] = Double.parseDouble(parts[i]);
+		}
+		return Matrix.fromList(n, m, values);
+	}
+	
+	/**
+	 * Creates a vector from a single line text written by toLine.
+	 * @param line Comma separated values
+	 * @param precision Precision of the vector
+	 * @return A Matrix object
+	 */
+	public static Matrix fromLine(String line, Precision precision) {
+		return Matrix.fromLine(line.split(",").length, 1, line, precision);
 	}
 	
 	/**
@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.RecursiveTask;
 
 import javax.imageio.ImageIO;
 
@@ -25,9 +26,18 @@ public class NeuralNetwork {
 	public static boolean INFO_ENABLED = true;
 	public static ActivationFunctions.Function ACTIVATION_FUNCTION = ActivationFunctions.Function.SIGMOID;
 	public static Colors IMAGE_COLOR = Colors.GREEN;
+	public static int PARALLELISM = Runtime.getRuntime().availableProcessors();
+	public static long PARALLEL_THRESHOLD = 1 << 18;
+	public static boolean WORKSPACE_DEBUG = false;
+	public static int PREDICT_BATCH_SIZE = 64;
 	
 	private int[] layerSizes;
 	private Layer[] layers;
+	private Precision precision = Precision.FLOAT64;
+	private boolean fastMath;
+	private Optimizer optimizer;
+	private final ThreadLocal<Workspace> workspaces = new ThreadLocal<>();
+	private final ThreadLocal<WorkspaceStack> workspaceStacks = ThreadLocal.withInitial(WorkspaceStack::new);
 	
 	public NeuralNetwork(int... layerSizes) { 
 		this.layerSizes = layerSizes;
@@ -35,6 +45,13 @@ public class NeuralNetwork {
 		this.setNeigborLayers();
 	}
 	
+	public NeuralNetwork(Precision precision, int... layerSizes) {
+		this.precision = precision;
+		this.layerSizes = layerSizes;
+		this.constructLayers();
+		this.setNeigborLayers();
+	}
+	
 	public NeuralNetwork() { }
 	
 	public int[] getLayerSizes() {
@@ -45,6 +62,117 @@ public class NeuralNetwork {
 		this.layerSizes = layerSizes;
 	}
 
+	public Precision getPrecision() {
+		return precision;
+	}
+	
+	public boolean isFastMath() {
+		return fastMath;
+	}
+	
+	/**
+	 * Enables the approximated sigmoid and tanh of ActivationFunctions.FastFunction on all layers.
+	 * They are faster, but have an absolute error up to 1e-5.
+	 * @param fastMath True, to use the approximations
+	 */
+	public void setFastMath(boolean fastMath) {
+		this.fastMath = fastMath;
+		if (this.layers == null) return;
+		for (Layer l: this.layers) {
+			l.setFastMath(fastMath);
+		}
+	}
+	
+	public Optimizer getOptimizer() {
+		return optimizer;
+	}
+	
+	/**
+	 * Sets the update rule of the training. Without an optimizer the weights are updated by plain
+	 * gradient descent with NeuralNetwork.LEARNING_RATE, directly during back propagation.
+	 * The state buffers of the optimizer are allocated here for all layers.
+	 * @param optimizer The optimizer, or null
+	 */
+	public void setOptimizer(Optimizer optimizer) {
+		this.optimizer = optimizer;
+		if (optimizer != null && this.layers != null) {
+			optimizer.allocate(this);
+		}
+	}
+	
+	/**
+	 * @return The workspace of the calling thread. It is created on the first call and recreated if the shape of the network changed.
+	 */
+	public Workspace getWorkspace() {
+		Workspace workspace = this.workspaces.get();
+		if (workspace == null || !workspace.matches(this.layerSizes, this.precision)) {
+			workspace = new Workspace(this.layerSizes, this.precision);
+			this.workspaces.set(workspace);
+		}
+		return workspace;
+	}
+	
+	/**
+	 * Takes a workspace of the calling thread which no other pass of the thread uses until it is released.
+	 * A pool worker that waits for a subtask may run another task of the pool in the meantime; that task
+	 * takes the next workspace of the thread instead of overwriting the one of the waiting task.
+	 * The workspaces are kept, so a steady state does not allocate.
+	 * @param batchSize Number of samples in a batch
+	 * @return A workspace of this network shape and batch size, see releaseWorkspace
+	 */
+	Workspace acquireWorkspace(int batchSize) {
+		WorkspaceStack stack = this.workspaceStacks.get();
+		if (stack.depth == stack.workspaces.length) {
+			stack.workspaces = Arrays.copyOf(stack.workspaces, 2 * stack.depth);
+		}
+		Workspace workspace = stack.workspaces[stack.depth];
+		if (workspace == null || !workspace.matches(this.layerSizes, this.precision, batchSize)) {
+			workspace = new Workspace(this.layerSizes, this.precision, batchSize);
+			stack.workspaces[stack.depth] = workspace;
+		}
+		stack.depth++;
+		return workspace;
+	}
+	
+	/**
+	 * Releases the workspace of the last acquireWorkspace of the calling thread.
+	 */
+	void releaseWorkspace() {
+		this.workspaceStacks.get().depth--;
+	}
+	
+	/**
+	 * Workspaces of a thread, taken and released in nested order.
+	 */
+	private static class WorkspaceStack {
+		
+		private Workspace[] workspaces = new Workspace[2];
+		private int depth;
+	}
+	
+	/**
+	 * Creates an immutable inference copy of the network for single sample prediction.
+	 * Later training does not change the copy.
+	 * @return The inference model
+	 */
+	public InferenceModel freeze() {
+		InferenceModel model = new InferenceModel(this.layerSizes, this.layers, this.precision);
+		printInfo("Network frozen, " + model.getParameterCount() + " parameters.");
+		return model;
+	}
+	
+	/**
+	 * Moves the weights and biases of all layers into an off-heap arena.
+	 * The network must not be used after the arena is closed.
+	 * @param arena The owner of the weights
+	 */
+	public void moveTo(OffHeapArena arena) {
+		for (Layer l: this.layers) {
+			l.setData(l.getData().copy(arena));
+			l.setBias(l.getBias().copy(arena));
+		}
+	}
+	
 	/**
 	 * Construct all hidden layers from the layer sizes.
 	 */
@@ -52,9 +180,10 @@ public class NeuralNetwork {
 		this.layers = new Layer[this.layerSizes.length-1];
 		int index = 0;
 		for (int i=0; i<layers.length; i++) {
-			Matrix layerMatrix = new Matrix(this.layerSizes[i+1], this.layerSizes[i]);
+			Matrix layerMatrix = new Matrix(this.layerSizes[i+1], this.layerSizes[i], this.precision);
 			this.layers[i] = new Layer(layerMatrix);
 			this.layers[i].setIndex(index);
+			this.layers[i].setFastMath(this.fastMath);
 			this.layers[i].randomize();
 			index++;
 		}
@@ -84,106 +213,577 @@ public class NeuralNetwork {
 	 * @return A Matrix with the calculated errors.
 	 */
 	public Matrix train(Data data) {
-		Matrix result = null;
+		if (!NeuralNetwork.vectorize(data)) return null;
+		
+		Matrix loss = this.trainStep(this.getWorkspace(), data);
+		return loss == null ? null : loss.copy();
+	}
+	
+	/**
+	 * Calculates the gradients of a Data without updating the network and adds them to gradients.
+	 * @param data Training data
+	 * @param gradients Gradients of this network, see createGradients
+	 * @return A Matrix with the calculated errors.
+	 */
+	public Matrix computeGradients(Data data, Gradients gradients) {
+		if (!NeuralNetwork.vectorize(data)) return null;
+		
+		Workspace workspace = this.getWorkspace();
+		workspace.setApplyUpdates(false);
 		try {
-			if (!data.getInputs().isVector()) {
+			Matrix loss = this.trainStep(workspace, data);
+			if (loss == null) return null;
+			gradients.add(workspace.getGradients());
+			return loss.copy();
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			workspace.setApplyUpdates(true);
+		}
+	}
+	
+	/**
+	 * @return Zero gradients of this network, to accumulate with computeGradients and to apply with Gradients.apply
+	 */
+	public Gradients createGradients() {
+		return new Gradients(this);
+	}
+	
+	/**
+	 * Reshapes the inputs and target of a Data into vectors.
+	 * @return False, if the Data could not be reshaped
+	 */
+	private static boolean vectorize(Data data) {
+		try {
+			if (!data.isSparse() && !data.getInputs().isVector()) {
 				data.setInputs(Matrix.createVectorFromMatrix(data.getInputs()));
 			}
 			
 			if (!data.getTarget().isVector()) {
 				data.setTarget(Matrix.createVectorFromMatrix(data.getTarget()));
 			}
-			
-			Matrix output = layers[0].feedForward(true, data, null);
-			Matrix loss = Matrix.subtract(data.getTarget(), output);
-			result = loss.copy();
-			this.getLastLayer().backPropagate(true, output, loss, data);
 		} catch (Exception e) {
 			e.printStackTrace();
+			return false;
 		}
-		return result;
+		return true;
 	}
 	
 	/**
-	 * Trains the network with a DataSet.
-	 * @param dataSet Training dataset
+	 * Trains the network with a vectorized Data or a batch with one sample per column.
+	 * @param workspace Buffers of the calling thread
+	 * @param data Training data
+	 * @return The calculated errors, valid until the next step in the workspace.
 	 */
-	public void train(DataSet dataSet) {
-		Random random = new Random();
-		printInfo("Training start.");
-		for (int i=0; i<NeuralNetwork.TRAINING_ITERATIONS; i++) {
-			double percent = ((double)i / NeuralNetwork.TRAINING_ITERATIONS * 100);
-			int r = random.nextInt(dataSet.size());
-			Data d = dataSet.getData(r).copy();
-			if (!d.getInputs().isVector()) {
-				d.setInputs(Matrix.createVectorFromMatrix(d.getInputs()));
+	Matrix trainStep(Workspace workspace, Data data) {
+		workspace.reset();
+		try {
+			Matrix output = this.forward(workspace, data);
+			Matrix loss = workspace.getLoss();
+			Matrix.subtractInto(loss, data.getTarget(), output);
+			boolean apply = workspace.isApplyUpdates();
+			boolean direct = apply && this.optimizer == null;
+			this.backward(workspace, data, loss, direct);
+			if (!direct) {
+				workspace.getGradients().setSampleCount(loss.getM());
 			}
-			Matrix trainLoss = this.train(d);
-			
-			if (percent % 1 == 0) {
-				printInfo(percent + " %");
-				printLoss(Matrix.getSquaredSum(trainLoss));
+			if (apply && this.optimizer != null) {
+				this.applyGradients(workspace.getGradients(), this.optimizer, 1.0 / loss.getM());
 			}
+			return loss;
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
-		printInfo("Training complete.");
+		return null;
 	}
 	
 	/**
-	 * Tests the network with a DataSet.
-	 * @param dataSet Test dataset
-	 * @return A value which represents the network's accuracy.
+	 * Runs the layers one after another. The outputs of all layers are kept in the workspace,
+	 * so passes with different workspaces can run in parallel on the same network.
+	 * @param workspace Buffers of the pass
+	 * @param data Vectorized input data or a batch with one sample per column
+	 * @return The output of the last layer, valid until the next pass in the workspace
+	 * @throws Exception
 	 */
-	public double test(DataSet dataSet) {
-		printInfo("Test start.");
-		int correctPredict = 0;
-		for (int i=0; i<dataSet.size(); i++) {
-			Data d = dataSet.getData(i);
-			if (!d.getInputs().isVector()) {
-				d.setInputs(Matrix.createVectorFromMatrix(d.getInputs()));
+	Matrix forward(Workspace workspace, Data data) throws Exception {
+		Matrix output = null;
+		for (Layer l: this.layers) {
+			output = l.feedForward(workspace, data, output);
+		}
+		return output;
+	}
+	
+	/**
+	 * Runs the layers on a dense input, see forward(Workspace, Data).
+	 * @param workspace Buffers of the pass
+	 * @param input Input vector or a batch with one sample per column
+	 * @return The output of the last layer, valid until the next pass in the workspace
+	 * @throws Exception
+	 */
+	Matrix forward(Workspace workspace, Matrix input) throws Exception {
+		Matrix output = input;
+		for (Layer l: this.layers) {
+			output = l.feedForward(workspace, null, output);
+		}
+		return output;
+	}
+	
+	/**
+	 * Back propagates the loss of the output through the layers, from the last to the first.
+	 * @param workspace Buffers of the pass, filled by forward
+	 * @param data The training data of the pass
+	 * @param loss The loss of the output
+	 * @param apply True, to update the layers directly with NeuralNetwork.LEARNING_RATE, false to
+	 * leave the gradients in the workspace
+	 * @throws Exception
+	 */
+	void backward(Workspace workspace, Data data, Matrix loss, boolean apply) throws Exception {
+		for (int i=this.layers.length-1; i>=0; i--) {
+			loss = this.layers[i].backPropagate(workspace, data, loss, apply);
+		}
+	}
+	
+	/**
+	 * Updates the layers with summed gradients.
+	 * @param gradients Summed weight and bias gradients
+	 * @param optimizer The update rule, or null for gradient descent with NeuralNetwork.LEARNING_RATE
+	 * @param scale Factor of the gradients, like 1 / batch size
+	 * @throws Exception
+	 */
+	void applyGradients(Gradients gradients, Optimizer optimizer, double scale) throws Exception {
+		if (optimizer == null) {
+			for (Layer l: this.layers) {
+				Matrix.axpy(NeuralNetwork.LEARNING_RATE * scale, gradients.getWeightGradient(l.getIndex()), l.getData());
+				Matrix.axpy(NeuralNetwork.LEARNING_RATE * scale, gradients.getBiasGradient(l.getIndex()), l.getBias());
+			}
+			return;
+		}
+		
+		long step = optimizer.nextStep();
+		for (Layer l: this.layers) {
+			optimizer.update(2 * l.getIndex(), l.getData(), gradients.getWeightGradient(l.getIndex()), scale, step);
+			optimizer.update(2 * l.getIndex() + 1, l.getBias(), gradients.getBiasGradient(l.getIndex()), scale, step);
+		}
+	}
+	
+	/**
+	 * Calculates the mean squared error of the network on a vectorized DataSet. The samples are
+	 * split between the threads of the shared pool, every task uses its own workspace, see acquireWorkspace.
+	 * @param dataSet Dataset with inputs and targets, not empty
+	 * @return Mean of the squared error sums of the samples, NaN if a sample failed
+	 */
+	public double evaluateLoss(DataSet dataSet) {
+		if (dataSet.size() == 0) {
+			throw new IllegalArgumentException("Empty data set.");
+		}
+		LossTask task = new LossTask(dataSet, 0, dataSet.size());
+		Parallel.invoke(task);
+		return task.join() / dataSet.size();
+	}
+	
+	/**
+	 * Copies the weights and biases of all layers.
+	 * @param snapshot A snapshot of this network to overwrite, or null
+	 * @return The snapshot
+	 */
+	Matrix[] snapshot(Matrix[] snapshot) {
+		if (snapshot == null) {
+			snapshot = new Matrix[2 * this.layers.length];
+			for (Layer l: this.layers) {
+				snapshot[2 * l.getIndex()] = l.getData().copy();
+				snapshot[2 * l.getIndex() + 1] = l.getBias().copy();
+			}
+			return snapshot;
+		}
+		try {
+			for (Layer l: this.layers) {
+				Matrix.copyInto(snapshot[2 * l.getIndex()], l.getData());
+				Matrix.copyInto(snapshot[2 * l.getIndex() + 1], l.getBias());
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * Copies the weights and biases of a snapshot back into the layers.
+	 * @param snapshot Snapshot of this network
+	 */
+	void restore(Matrix[] snapshot) {
+		try {
+			for (Layer l: this.layers) {
+				Matrix.copyInto(l.getData(), snapshot[2 * l.getIndex()]);
+				Matrix.copyInto(l.getBias(), snapshot[2 * l.getIndex() + 1]);
 			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Sums the squared errors of a range of samples, split in halves between the threads.
+	 */
+	private class LossTask extends RecursiveTask<Double> {
+		
+		private static final long serialVersionUID = 1L;
+		private static final int GRAIN = 32;
+		
+		private final DataSet dataSet;
+		private final int from, to;
+		
+		LossTask(DataSet dataSet, int from, int to) {
+			this.dataSet = dataSet;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected Double compute() {
+			if (NeuralNetwork.PARALLELISM > 1 && this.to - this.from > GRAIN) {
+				int mid = (this.from + this.to) >>> 1;
+				LossTask left = new LossTask(this.dataSet, this.from, mid);
+				LossTask right = new LossTask(this.dataSet, mid, this.to);
+				right.fork();
+				double sum = left.compute();
+				return sum + right.join();
+			}
+			
+			double sum = 0;
+			Workspace workspace = acquireWorkspace(1);
 			try {
-				double target = dataSet.getData(i).getTarget().getMaxIndexFromVec();
-				Matrix predictMatrix = predict(d);
-				double predicted = predictMatrix.getMaxIndexFromVec();
-				double maxVal = predictMatrix.getMaxValue();
-				if (target == predicted) {
-					correctPredict++;
+				for (int i=this.from; i<this.to; i++) {
+					Data d = this.dataSet.getData(i);
+					workspace.reset();
+					Matrix output = forward(workspace, d);
+					Matrix.subtractInto(workspace.getLoss(), d.getTarget(), output);
+					sum += Matrix.getSquaredNorm(workspace.getLoss());
 				}
-				String label = dataSet.getData(i).getLabel() == null ? "-" : dataSet.getData(i).getLabel();
-				printInfo("Label: " + label + "\t Target: " + target + "\t" + " Predict: " + predicted + " (" + maxVal + ")");
 			} catch (Exception e) {
 				e.printStackTrace();
-			}	
+				return Double.NaN;
+			} finally {
+				releaseWorkspace();
+			}
+			return sum;
 		}
-		double acc = (double)correctPredict / (double)dataSet.size() * 100;
-		printInfo("Accuracy: " + acc + " %");
+	}
+	
+	/**
+	 * Trains the network one sample at a time with the default sample order of TrainingConfig, see
+	 * train(DataSet, TrainingConfig). The default config has no epochs, so the run draws
+	 * NeuralNetwork.TRAINING_ITERATIONS samples at random.
+	 * @param dataSet Training dataset
+	 */
+	public void train(DataSet dataSet) {
+		this.train(dataSet, new TrainingConfig(1));
+	}
+	
+	/**
+	 * Trains the network with mini-batches of random samples, or of shuffled samples if the config
+	 * has epochs. Every batch is stacked into a matrix, so the layers multiply matrices instead of
+	 * vectors and update the weights once per batch with the averaged gradient. A batch of one sample
+	 * uses the sample itself.
+	 * <p>
+	 * With more than one thread in the config, every batch is split between the threads, see DataParallelTrainer,
+	 * or in asynchronous mode every thread trains its own batches, see HogwildTrainer.
+	 * <p>
+	 * The samples are reshaped into vectors once, see DataSet.vectorized. Their values are not copied
+	 * and the DataSet of the caller is not changed. The run stops early on a NaN or infinite loss,
+	 * at the time limit of the config, or when the monitored loss does not improve for the patience of
+	 * the config, see TrainingController.
+	 * @param dataSet Training dataset
+	 * @param config Batch size, number of batches or epochs, threads, seed and stopping criteria
+	 * @return Result of the run
+	 */
+	public TrainingResult train(DataSet dataSet, TrainingConfig config) {
+		dataSet = dataSet.vectorized();
+		TrainingController controller = new TrainingController(this, config);
+		if (config.getThreads() > 1 && config.isAsynchronous()) {
+			new HogwildTrainer(this, config).train(dataSet, controller);
+			return controller.finish();
+		}
+		if (config.getThreads() > 1) {
+			new DataParallelTrainer(this, config).train(dataSet, controller);
+			return controller.finish();
+		}
+		
+		int batchSize = config.getBatchSize();
+		int iterations = config.getBatches(dataSet.size());
+		Workspace workspace = new Workspace(this.layerSizes, this.precision, batchSize);
+		Data batch = new Data(workspace.getInputs(), workspace.getTargets());
+		Random random = config.getSeed() == null ? new Random() : new Random(config.getSeed());
+		SampleOrder order = config.createSampleOrder(dataSet.size(), random);
+		int[] samples = new int[batchSize];
+		int accumulationSteps = Math.max(1, config.getAccumulationSteps());
+		Gradients accumulated = accumulationSteps > 1 ? this.createGradients() : null;
+		workspace.setApplyUpdates(accumulated == null);
+		printInfo("Training start. Batch size: " + batchSize);
+		try {
+			for (int i=0; i<iterations && !controller.isStopped(); i++) {
+				double percent = ((double)i / iterations * 100);
+				order.next(samples);
+				Data d = batchSize == 1 ? dataSet.getData(samples[0]) : batch;
+				if (batchSize > 1) {
+					dataSet.fillBatch(samples, 0, batchSize, batch.getInputs(), batch.getTarget());
+				}
+				Matrix trainLoss = this.trainStep(workspace, d);
+				if (accumulated != null && trainLoss != null) {
+					accumulated.add(workspace.getGradients());
+					if ((i + 1) % accumulationSteps == 0 || i == iterations - 1) {
+						accumulated.apply(this.optimizer);
+						accumulated.clear();
+					}
+				}
+				double squaredSum = trainLoss == null ? Double.NaN : Matrix.getSquaredNorm(trainLoss);
+				controller.afterStep(squaredSum, batchSize);
+				
+				if (percent % 1 == 0) {
+					printInfo(percent + " %");
+					printLoss(squaredSum / batchSize);
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		printInfo("Training complete.");
+		return controller.finish();
+	}
+	
+	/**
+	 * Tests the network with a DataSet, see evaluate(DataSet).
+	 * @param dataSet Test dataset
+	 * @return A value which represents the network's accuracy.
+	 */
+	public double test(DataSet dataSet) {
+		printInfo("Test start.");
+		EvaluationReport report = this.evaluate(dataSet);
+		printInfo("Accuracy: " + report.getAccuracy() * 100 + " %");
 		printInfo("Test complete.");
-		return acc;
+		return report.getAccuracy() * 100;
+	}
+	
+	/**
+	 * Evaluates the classification of a DataSet. The data is predicted in batches by the threads of
+	 * the shared pool, see predictBatch(DataSet), and every thread writes only the classes of its own
+	 * samples, so the counts need no synchronization. The data set is not changed.
+	 * @param dataSet Test dataset, the targets mark the classes
+	 * @return Accuracy, per-class precision and recall and the confusion matrix
+	 */
+	public EvaluationReport evaluate(DataSet dataSet) {
+		long start = System.currentTimeMillis();
+		int[] predicted = this.predictArgmax(dataSet);
+		int classes = this.getTargetsSize();
+		int[][] confusion = new int[classes][classes];
+		for (int i=0; i<predicted.length; i++) {
+			Matrix target = dataSet.getData(i).getTarget();
+			confusion[BatchPredictor.argmax(target, 0)][predicted[i]]++;
+		}
+		return new EvaluationReport(confusion, System.currentTimeMillis() - start);
 	}
 	
 	/**
-	 * Predicts a data.
+	 * Predicts a data. The data is not changed, so concurrent calls may share it.
 	 * @param data Test data
 	 * @return A Matrix with the calculated predictions.
 	 */
 	public Matrix predict(Data data) {
 		Matrix result = null;
+		Workspace workspace = this.acquireWorkspace(1);
 		try {
-			if (!data.getInputs().isVector()) {
-				data.setInputs(Matrix.createVectorFromMatrix(data.getInputs()));
+			workspace.reset();
+			if (data.isSparse()) {
+				result = this.forward(workspace, data).copy();
+			} else {
+				Matrix inputs = data.getInputs();
+				result = this.forward(workspace, inputs.getM() == 1 ? inputs : Matrix.createVectorFromMatrix(inputs)).copy();
 			}
-			result = layers[0].feedForward(true, data, null);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			this.releaseWorkspace();
 		}
 		return result;
 	}
 	
 	/**
-	 * @return The last layer of the network.
+	 * Predicts an input vector into a buffer of the caller. The network is only read and every
+	 * call calculates in its own workspace, see acquireWorkspace, so any number of threads may predict concurrently
+	 * with a shared network, as long as it is not trained at the same time.
+	 * @param input Input values, getInputsSize() elements
+	 * @param output Destination of the prediction, getTargetsSize() elements
+	 */
+	public void predict(double[] input, double[] output) {
+		this.predict(Matrix.wrap(input, this.getInputsSize(), 1), output);
+	}
+	
+	/**
+	 * Predicts an input matrix into a buffer of the caller, see predict(double[], double[]).
+	 * The input is only read, a matrix with more than one column is read row by row.
+	 * @param input Input values, getInputsSize() elements
+	 * @param output Destination of the prediction, getTargetsSize() elements
+	 */
+	public void predict(Matrix input, double[] output) {
+		if (input.getElementsCount() != this.getInputsSize() || output.length < this.getTargetsSize()) {
+			throw new IllegalArgumentException("Dimensions do not matches.");
+		}
+		
+		Workspace workspace = this.acquireWorkspace(1);
+		try {
+			workspace.reset();
+			Matrix vector = input;
+			if (input.getM() != 1 || input.getPrecision() != this.precision) {
+				// Other shapes and precisions are copied into the input buffer of the workspace.
+				vector = workspace.getInputs();
+				vector.setCol(0, input);
+			}
+			Matrix.copyInto(Matrix.wrap(output, this.getTargetsSize(), 1), this.forward(workspace, vector));
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		} finally {
+			this.releaseWorkspace();
+		}
+	}
+	
+	/**
+	 * Predicts many input vectors into buffers of the caller. The inputs are packed into batches of
+	 * PREDICT_BATCH_SIZE columns, which pass every layer with one matrix multiplication, and the batches
+	 * are predicted in parallel, see PARALLELISM. The network must not be trained at the same time.
+	 * @param inputs Input vectors, getInputsSize() elements each
+	 * @param outputs Destinations of the predictions, getTargetsSize() elements each
+	 */
+	public void predictBatch(double[][] inputs, double[][] outputs) {
+		if (outputs.length < inputs.length) {
+			throw new IllegalArgumentException("Dimensions do not matches.");
+		}
+		for (double[] output: outputs) {
+			if (output.length < this.getTargetsSize()) {
+				throw new IllegalArgumentException("Dimensions do not matches.");
+			}
+		}
+		new BatchPredictor(this, this.batchInputs(inputs), (output, column, sample) -> {
+			for (int i=0; i<output.getN(); i++) {
+				outputs[sample][i] = output.get(i, column);
+			}
+		}).run();
+	}
+	
+	/**
+	 * Predicts all data of a data set in batches, see predictBatch(double[][], double[][]).
+	 * The data set is not changed.
+	 * @param dataSet Data set
+	 * @return The predictions in the order of the data
+	 */
+	public double[][] predictBatch(DataSet dataSet) {
+		double[][] outputs = new double[dataSet.size()][this.getTargetsSize()];
+		new BatchPredictor(this, this.batchInputs(dataSet), (output, column, sample) -> {
+			for (int i=0; i<output.getN(); i++) {
+				outputs[sample][i] = output.get(i, column);
+			}
+		}).run();
+		return outputs;
+	}
+	
+	/**
+	 * Predicts the classes of many input vectors in batches, see predictBatch(double[][], double[][]).
+	 * @param inputs Input vectors, getInputsSize() elements each
+	 * @return Index of the largest output of every input
+	 */
+	public int[] predictArgmax(double[][] inputs) {
+		int[] classes = new int[inputs.length];
+		new BatchPredictor(this, this.batchInputs(inputs), (output, column, sample) -> {
+			classes[sample] = BatchPredictor.argmax(output, column);
+		}).run();
+		return classes;
+	}
+	
+	/**
+	 * Predicts the classes of all data of a data set in batches.
+	 * @param dataSet Data set
+	 * @return Index of the largest output of every data
+	 */
+	public int[] predictArgmax(DataSet dataSet) {
+		int[] classes = new int[dataSet.size()];
+		new BatchPredictor(this, this.batchInputs(dataSet), (output, column, sample) -> {
+			classes[sample] = BatchPredictor.argmax(output, column);
+		}).run();
+		return classes;
+	}
+	
+	/**
+	 * Predicts the k most likely classes of many input vectors in batches.
+	 * @param inputs Input vectors, getInputsSize() elements each
+	 * @param k Number of classes
+	 * @return Indices of the k largest outputs of every input, the largest first
+	 */
+	public int[][] predictTopK(double[][] inputs, int k) {
+		int[][] classes = new int[inputs.length][];
+		new BatchPredictor(this, this.batchInputs(inputs), (output, column, sample) -> {
+			classes[sample] = BatchPredictor.topK(output, column, k);
+		}).run();
+		return classes;
+	}
+	
+	/**
+	 * Predicts the k most likely classes of all data of a data set in batches.
+	 * @param dataSet Data set
+	 * @param k Number of classes
+	 * @return Indices of the k largest outputs of every data, the largest first
+	 */
+	public int[][] predictTopK(DataSet dataSet, int k) {
+		int[][] classes = new int[dataSet.size()][];
+		new BatchPredictor(this, this.batchInputs(dataSet), (output, column, sample) -> {
+			classes[sample] = BatchPredictor.topK(output, column, k);
+		}).run();
+		return classes;
+	}
+	
+	/**
+	 * @param inputs Input vectors
+	 * @return Batch source of the vectors
 	 */
-	private Layer getLastLayer() {
-		return this.layers[this.layers.length - 1];
+	private BatchPredictor.Inputs batchInputs(double[][] inputs) {
+		int size = this.getInputsSize();
+		for (double[] input: inputs) {
+			if (input.length != size) {
+				throw new IllegalArgumentException("Dimensions do not matches.");
+			}
+		}
+		return new BatchPredictor.Inputs() {
+			@Override
+			public int size() {
+				return inputs.length;
+			}
+			
+			@Override
+			public void fill(Matrix batch, int column, int sample) throws Exception {
+				batch.setCol(column, Matrix.wrap(inputs[sample], size, 1));
+			}
+		};
+	}
+	
+	/**
+	 * @param dataSet Data set
+	 * @return Batch source of the inputs of the data
+	 */
+	private BatchPredictor.Inputs batchInputs(DataSet dataSet) {
+		return new BatchPredictor.Inputs() {
+			@Override
+			public int size() {
+				return dataSet.size();
+			}
+			
+			@Override
+			public void fill(Matrix batch, int column, int sample) throws Exception {
+				Data d = dataSet.getData(sample);
+				if (d.isSparse()) {
+					batch.setCol(column, d.getSparseInputs());
+				} else {
+					batch.setCol(column, d.getInputs());
+				}
+			}
+		};
 	}
 	
 	/**
@@ -207,6 +807,10 @@ public class NeuralNetwork {
 		System.out.println("Learning rate:\t\t" + NeuralNetwork.LEARNING_RATE);
 		System.out.println("Training iterations:\t" + String.format("%,d", NeuralNetwork.TRAINING_ITERATIONS));
 		System.out.println("Activation function:\t" + NeuralNetwork.ACTIVATION_FUNCTION);
+		System.out.println("Precision:\t\t" + this.precision);
+		System.out.println("Fast math:\t\t" + this.fastMath);
+		System.out.println("Optimizer:\t\t" + (this.optimizer == null ? "SGD" : this.optimizer.getClass().getSimpleName()));
+		System.out.println("Parallelism:\t\t" + NeuralNetwork.PARALLELISM);
 		System.out.println("Layers:");
 		printShape();
 		System.out.println("---\n");
@@ -219,9 +823,14 @@ public class NeuralNetwork {
 	public void save(String path) {
 		try {
 			FileWriter myWriter = new FileWriter(path);
+			myWriter.write(keyValue("precision", this.precision.name()));
 			myWriter.write(keyValue("layer_sizes", Arrays.toString(this.layerSizes).replace("[", "").replace("]", "").replaceAll(" ", "")));
 			myWriter.write(keyValue("activation_function", NeuralNetwork.ACTIVATION_FUNCTION.name()));
+			myWriter.write(keyValue("fast_math", String.valueOf(this.fastMath)));
 			for (int i=0; i<layers.length; i++) {
+				if (layers[i].getActivation() instanceof Function && layers[i].getActivation() != NeuralNetwork.ACTIVATION_FUNCTION) {
+					myWriter.write(keyValue("layer_a::" + i, ((Function) layers[i].getActivation()).name()));
+				}
 				myWriter.write(keyValue("layer_w::" + i, layers[i].weightsToLine()));
 				myWriter.write(keyValue("layer_b::" + i, layers[i].biasToLine()));
 			}
@@ -246,25 +855,30 @@ public class NeuralNetwork {
 		        String key = data.split("=")[0];
 		        String val = data.split("=")[1];
 		        
-		        if (key.equals("LAYER_SIZES")) {
+		        if (key.equals("PRECISION")) {
+		        	network.precision = Precision.valueOf(val);
+		        } else if (key.equals("LAYER_SIZES")) {
 		        	int[] layers = Arrays.asList(val.split(",")).stream().mapToInt(Integer::parseInt).toArray();
 		        	network.setLayerSizes(layers);
 		        	network.constructLayers();
 		        	network.setNeigborLayers();
 		        } else if (key.equals("ACTIVATION_FUNCTION")) {
 		        	NeuralNetwork.ACTIVATION_FUNCTION = Function.valueOf(val);
+		        } else if (key.equals("FAST_MATH")) {
+		        	network.setFastMath(Boolean.parseBoolean(val));
+		        } else if (key.startsWith("LAYER_A")) {
+		        	int indexOfLayer = Integer.parseInt(key.split("::")[1]);
+		        	network.layers[indexOfLayer].setActivation(Function.valueOf(val));
 		        } else if (key.startsWith("LAYER_W")) {
 		        	int indexOfLayer = Integer.parseInt(key.split("::")[1]);
 		        	int n = network.layers[indexOfLayer].getData().getN();
 		        	int m = network.layers[indexOfLayer].getData().getM();
-		        	double[] values = Arrays.asList(val.split(",")).stream().mapToDouble(Double::parseDouble).toArray();
-		        	network.layers[indexOfLayer].setData(Matrix.fromList(n, m, values));
+		        	network.layers[indexOfLayer].setData(Matrix.fromLine(n, m, val, network.precision));
 		        } else if (key.startsWith("LAYER_B")) {
 		        	int indexOfLayer = Integer.parseInt(key.split("::")[1]);
 		        	int n = network.layers[indexOfLayer].getBias().getN();
 		        	int m = network.layers[indexOfLayer].getBias().getM();
-		        	double[] values = Arrays.asList(val.split(",")).stream().mapToDouble(Double::parseDouble).toArray();
-		        	network.layers[indexOfLayer].setBias(Matrix.fromList(n, m, values));
+		        	network.layers[indexOfLayer].setBias(Matrix.fromLine(n, m, val, network.precision));
 		        }
 		      }
 			scanner.close();
@@ -291,7 +905,7 @@ public class NeuralNetwork {
 	 * Prints a text to the console.
 	 * @param text A text
 	 */
-	private void printInfo(String text) {
+	void printInfo(String text) {
 		if (!NeuralNetwork.INFO_ENABLED) return;
 		String time = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss").format(Calendar.getInstance().getTime());
 		System.out.println("[NeuralNetwork | " + time + "] " + text);
@@ -311,7 +925,7 @@ public class NeuralNetwork {
 	 * Prints loss to the console.
 	 * @param val Loss
 	 */
-	private void printLoss(double val) {
+	void printLoss(double val) {
 		if (!NeuralNetwork.INFO_ENABLED) return;
 		String time = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss").format(Calendar.getInstance().getTime());
 		System.out.printf("[NeuralNetwork | %s] Loss: %.16f\n", time, val);
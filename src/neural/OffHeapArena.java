@@ -0,0 +1,146 @@
+package neural;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owns matrices stored in direct buffers outside of the garbage collected heap.
+ * The memory of every matrix allocated by the arena is released together when the arena is closed,
+ * the matrices must not be used after that.
+ * <pre>
+ * try (OffHeapArena arena = new OffHeapArena()) {
+ *     DataSet dataSet = DataSet.load("data.txt", Precision.FLOAT32, arena);
+ *     network.train(dataSet);
+ * }
+ * </pre>
+ */
+public final class OffHeapArena implements AutoCloseable {
+	
+	private static final Releaser RELEASER = Releaser.find();
+	
+	private final List<ByteBuffer> buffers;
+	private final List<Storage> storages;
+	private long allocatedBytes;
+	private boolean open;
+	
+	public OffHeapArena() {
+		this.buffers = new ArrayList<>();
+		this.storages = new ArrayList<>();
+		this.open = true;
+	}
+	
+	public Matrix allocate(int n, int m) {
+		return this.allocate(n, m, Precision.FLOAT64);
+	}
+	
+	/**
+	 * Allocates a zeroed contiguous matrix in the arena.
+	 * @param n Number of rows
+	 * @param m Number of columns
+	 * @param precision Element format
+	 * @return Matrix object
+	 */
+	public synchronized Matrix allocate(int n, int m, Precision precision) {
+		if (!this.open) {
+			throw new IllegalStateException("The arena is closed.");
+		}
+		
+		int elementBytes = precision == Precision.FLOAT32 ? Float.BYTES : Double.BYTES;
+		long bytes = (long) n * m * elementBytes;
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The matrix does not fit into a direct buffer.");
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+		Storage storage = precision == Precision.FLOAT32 ? new Storage.OffHeapFloats(buffer) : new Storage.OffHeapDoubles(buffer);
+		this.buffers.add(buffer);
+		this.storages.add(storage);
+		this.allocatedBytes += bytes;
+		return Matrix.wrap(storage, n, m);
+	}
+	
+	/**
+	 * Releases the memory of all matrices allocated by the arena.
+	 */
+	@Override
+	public synchronized void close() {
+		if (!this.open) return;
+		this.open = false;
+		
+		for (Storage storage: this.storages) {
+			if (storage instanceof Storage.OffHeapDoubles) {
+				((Storage.OffHeapDoubles) storage).release();
+			} else {
+				((Storage.OffHeapFloats) storage).release();
+			}
+		}
+		for (ByteBuffer buffer: this.buffers) {
+			RELEASER.release(buffer);
+		}
+		this.storages.clear();
+		this.buffers.clear();
+		this.allocatedBytes = 0;
+	}
+	
+	public synchronized boolean isOpen() {
+		return this.open;
+	}
+	
+	/**
+	 * @return Number of bytes held by the arena
+	 */
+	public synchronized long getAllocatedBytes() {
+		return this.allocatedBytes;
+	}
+	
+	/**
+	 * Frees a direct buffer immediately. Java 8 has no public API for it, so the cleaner of the
+	 * buffer is called through reflection. If the runtime does not allow that, the memory is freed
+	 * when the buffer is garbage collected.
+	 */
+	private static class Releaser {
+		
+		private final Object unsafe;
+		private final Method invokeCleaner;
+		
+		private Releaser(Object unsafe, Method invokeCleaner) {
+			this.unsafe = unsafe;
+			this.invokeCleaner = invokeCleaner;
+		}
+		
+		static Releaser find() {
+			try {
+				// Java 9 and later
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Field field = unsafeClass.getDeclaredField("theUnsafe");
+				field.setAccessible(true);
+				return new Releaser(field.get(null), unsafeClass.getMethod("invokeCleaner", ByteBuffer.class));
+			} catch (Exception | LinkageError e) {
+				return new Releaser(null, null);
+			}
+		}
+		
+		void release(ByteBuffer buffer) {
+			try {
+				if (this.invokeCleaner != null) {
+					this.invokeCleaner.invoke(this.unsafe, buffer);
+					return;
+				}
+				// Java 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			} catch (Exception | LinkageError e) {
+				// Left to the garbage collector.
+			}
+		}
+	}
+
+}
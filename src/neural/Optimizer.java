@@ -0,0 +1,323 @@
+package neural;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Update rule of the weights and biases. The network passes the summed gradient of every parameter
+ * to update once per batch, the gradient points in the direction of a smaller loss.
+ * The state buffers of all parameters, like the moments of Adam, are allocated when the optimizer is
+ * set on a network and reused by all steps. An optimizer belongs to one network.
+ * <p>
+ * The step counter is atomic and every update gets the number of its step, so the threads of an
+ * asynchronous run may update the same optimizer concurrently.
+ * <pre>
+ * network.setOptimizer(Optimizer.adam(0.001));
+ * </pre>
+ */
+public abstract class Optimizer {
+	
+	private final double learningRate;
+	private LearningRateSchedule schedule;
+	private volatile Matrix[][] state = new Matrix[0][];
+	private final AtomicLong step = new AtomicLong();
+	private volatile double currentRate;
+	
+	protected Optimizer(double learningRate) {
+		this.learningRate = learningRate;
+		this.currentRate = learningRate;
+	}
+	
+	/**
+	 * Plain stochastic gradient descent.
+	 * @param learningRate Learning rate
+	 * @return Optimizer object
+	 */
+	public static Optimizer sgd(double learningRate) {
+		return new Sgd(learningRate);
+	}
+	
+	public static Optimizer momentum(double learningRate, double momentum) {
+		return new Momentum(learningRate, momentum, false);
+	}
+	
+	public static Optimizer nesterov(double learningRate, double momentum) {
+		return new Momentum(learningRate, momentum, true);
+	}
+	
+	public static Optimizer rmsProp(double learningRate) {
+		return new RMSProp(learningRate, 0.9, 1e-8);
+	}
+	
+	public static Optimizer adam(double learningRate) {
+		return new Adam(learningRate, 0.9, 0.999, 1e-8);
+	}
+	
+	/**
+	 * Starts the next step.
+	 * @return Number of the step, starting with 1
+	 */
+	public long nextStep() {
+		long step = this.step.incrementAndGet();
+		this.currentRate = this.getLearningRate(step);
+		return step;
+	}
+	
+	/**
+	 * @param step Number of the step
+	 * @return Learning rate of the step after the schedule
+	 */
+	private double getLearningRate(long step) {
+		return this.schedule == null ? this.learningRate : this.schedule.getLearningRate(this.learningRate, step);
+	}
+	
+	/**
+	 * Updates a parameter with its gradient.
+	 * @param slot Index of the parameter in the network, which identifies its state buffers
+	 * @param parameter Weights or biases
+	 * @param gradient Summed gradient of the parameter
+	 * @param scale Scale of the gradient, like 1 / batch size
+	 * @param step Number of the step, see nextStep
+	 * @throws Exception
+	 */
+	public void update(int slot, Matrix parameter, Matrix gradient, double scale, long step) throws Exception {
+		this.update(parameter, gradient, this.getState(slot, parameter), scale, this.getLearningRate(step), step);
+	}
+	
+	/**
+	 * Applies the update rule.
+	 * @param parameter Weights or biases
+	 * @param gradient Summed gradient of the parameter
+	 * @param state The getStateCount() state buffers of the parameter, zero at the first step
+	 * @param scale Scale of the gradient
+	 * @param rate Learning rate of the step
+	 * @param step Number of the step, starting with 1
+	 * @throws Exception
+	 */
+	protected abstract void update(Matrix parameter, Matrix gradient, Matrix[] state, double scale, double rate, long step) throws Exception;
+	
+	/**
+	 * @return Number of state buffers per parameter
+	 */
+	protected abstract int getStateCount();
+	
+	/**
+	 * Allocates the state buffers of all weights and biases of a network. The weights of layer i
+	 * use slot 2 * i, the biases slot 2 * i + 1.
+	 * @param network The network of this optimizer
+	 */
+	void allocate(NeuralNetwork network) {
+		int layers = network.getLayerSizes().length - 1;
+		Matrix[][] state = new Matrix[2 * layers][];
+		for (int i=0; i<layers; i++) {
+			Layer l = network.getLayer(i);
+			state[2 * i] = this.createState(l.getData());
+			state[2 * i + 1] = this.createState(l.getBias());
+		}
+		this.state = state;
+	}
+	
+	private Matrix[] createState(Matrix parameter) {
+		Matrix[] buffers = new Matrix[this.getStateCount()];
+		for (int i=0; i<buffers.length; i++) {
+			buffers[i] = new Matrix(parameter.getN(), parameter.getM(), parameter.getPrecision());
+		}
+		return buffers;
+	}
+	
+	private static boolean matches(Matrix[] buffers, Matrix parameter) {
+		return buffers != null && (buffers.length == 0 || (buffers[0].getN() == parameter.getN() && buffers[0].getM() == parameter.getM()));
+	}
+	
+	private Matrix[] getState(int slot, Matrix parameter) {
+		Matrix[][] state = this.state;
+		if (slot < state.length && matches(state[slot], parameter)) {
+			return state[slot];
+		}
+		return this.growState(slot, parameter);
+	}
+	
+	/**
+	 * Allocates the state of a parameter which was not allocated by allocate, like a parameter of
+	 * a network whose shape changed later.
+	 */
+	private synchronized Matrix[] growState(int slot, Matrix parameter) {
+		Matrix[][] state = this.state;
+		if (slot < state.length && matches(state[slot], parameter)) {
+			return state[slot];
+		}
+		Matrix[][] grown = new Matrix[Math.max(slot + 1, state.length)][];
+		System.arraycopy(state, 0, grown, 0, state.length);
+		grown[slot] = this.createState(parameter);
+		this.state = grown;
+		return grown[slot];
+	}
+	
+	/**
+	 * Zeroes the state buffers and clears the step counter.
+	 */
+	public void reset() {
+		for (Matrix[] buffers: this.state) {
+			if (buffers == null) continue;
+			for (Matrix buffer: buffers) {
+				buffer.init(0);
+			}
+		}
+		this.step.set(0);
+		this.currentRate = this.learningRate;
+	}
+	
+	public double getLearningRate() {
+		return learningRate;
+	}
+	
+	/**
+	 * @return Learning rate of the current step after the schedule
+	 */
+	public double getCurrentLearningRate() {
+		return currentRate;
+	}
+	
+	public long getStep() {
+		return step.get();
+	}
+	
+	public LearningRateSchedule getSchedule() {
+		return schedule;
+	}
+	
+	/**
+	 * @param schedule Schedule of the learning rate, or null for a constant rate
+	 */
+	public void setSchedule(LearningRateSchedule schedule) {
+		this.schedule = schedule;
+	}
+	
+	/**
+	 * p += rate * g
+	 */
+	public static class Sgd extends Optimizer {
+		
+		public Sgd(double learningRate) {
+			super(learningRate);
+		}
+		
+		@Override
+		protected void update(Matrix parameter, Matrix gradient, Matrix[] state, double scale, double rate, long step) throws Exception {
+			Matrix.axpy(rate * scale, gradient, parameter);
+		}
+		
+		@Override
+		protected int getStateCount() {
+			return 0;
+		}
+	}
+	
+	/**
+	 * v = momentum * v + g, p += rate * v. With Nesterov p += rate * (g + momentum * v).
+	 */
+	public static class Momentum extends Optimizer {
+		
+		private final double momentum;
+		private final boolean nesterov;
+		
+		public Momentum(double learningRate, double momentum, boolean nesterov) {
+			super(learningRate);
+			this.momentum = momentum;
+			this.nesterov = nesterov;
+		}
+		
+		@Override
+		protected void update(Matrix parameter, Matrix gradient, Matrix[] state, double scale, double rate, long step) throws Exception {
+			Matrix.momentumStep(parameter, gradient, state[0], scale, rate, this.momentum, this.nesterov);
+		}
+		
+		@Override
+		protected int getStateCount() {
+			return 1;
+		}
+		
+		public double getMomentum() {
+			return momentum;
+		}
+		
+		public boolean isNesterov() {
+			return nesterov;
+		}
+	}
+	
+	/**
+	 * s = decay * s + (1 - decay) * g^2, p += rate * g / (sqrt(s) + epsilon)
+	 */
+	public static class RMSProp extends Optimizer {
+		
+		private final double decay;
+		private final double epsilon;
+		
+		public RMSProp(double learningRate, double decay, double epsilon) {
+			super(learningRate);
+			this.decay = decay;
+			this.epsilon = epsilon;
+		}
+		
+		@Override
+		protected void update(Matrix parameter, Matrix gradient, Matrix[] state, double scale, double rate, long step) throws Exception {
+			Matrix.rmsPropStep(parameter, gradient, state[0], scale, rate, this.decay, this.epsilon);
+		}
+		
+		@Override
+		protected int getStateCount() {
+			return 1;
+		}
+		
+		public double getDecay() {
+			return decay;
+		}
+		
+		public double getEpsilon() {
+			return epsilon;
+		}
+	}
+	
+	/**
+	 * Adam, with moving averages m of g and v of g^2 and bias correction of both.
+	 */
+	public static class Adam extends Optimizer {
+		
+		private final double beta1;
+		private final double beta2;
+		private final double epsilon;
+		
+		public Adam(double learningRate, double beta1, double beta2, double epsilon) {
+			super(learningRate);
+			this.beta1 = beta1;
+			this.beta2 = beta2;
+			this.epsilon = epsilon;
+		}
+		
+		@Override
+		protected void update(Matrix parameter, Matrix gradient, Matrix[] state, double scale, double rate, long step) throws Exception {
+			// The bias correction of both moments is folded into the rate.
+			double t = Math.max(1, step);
+			double corrected = rate * Math.sqrt(1 - Math.pow(this.beta2, t)) / (1 - Math.pow(this.beta1, t));
+			Matrix.adamStep(parameter, gradient, state[0], state[1], scale, corrected, this.beta1, this.beta2, this.epsilon);
+		}
+		
+		@Override
+		protected int getStateCount() {
+			return 2;
+		}
+		
+		public double getBeta1() {
+			return beta1;
+		}
+		
+		public double getBeta2() {
+			return beta2;
+		}
+		
+		public double getEpsilon() {
+			return epsilon;
+		}
+	}
+
+}
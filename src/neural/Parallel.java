@@ -0,0 +1,55 @@
+package neural;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Holds the shared thread pool used by the parallel operations of the Neural Network.
+ */
+public class Parallel {
+	
+	private static volatile ForkJoinPool pool;
+	
+	/**
+	 * Returns the shared pool. The pool is recreated if NeuralNetwork.PARALLELISM was changed.
+	 * @return ForkJoinPool object
+	 */
+	public static ForkJoinPool getPool() {
+		ForkJoinPool current = pool;
+		int parallelism = Math.max(1, NeuralNetwork.PARALLELISM);
+		if (current != null && current.getParallelism() == parallelism) {
+			return current;
+		}
+		
+		synchronized (Parallel.class) {
+			if (pool == null || pool.getParallelism() != parallelism) {
+				if (pool != null) {
+					pool.shutdown();
+				}
+				pool = new ForkJoinPool(parallelism);
+			}
+			return pool;
+		}
+	}
+	
+	/**
+	 * Runs a task on the shared pool. If the caller is already a pool worker the task runs in its pool.
+	 * @param task The task
+	 */
+	public static void invoke(ForkJoinTask<?> task) {
+		if (ForkJoinTask.inForkJoinPool()) {
+			task.invoke();
+		} else {
+			Parallel.getPool().invoke(task);
+		}
+	}
+	
+	/**
+	 * @param work Number of multiply-add operations of a job
+	 * @return True, if the job is large enough to be split between threads
+	 */
+	public static boolean isWorthSplitting(long work) {
+		return NeuralNetwork.PARALLELISM > 1 && work >= NeuralNetwork.PARALLEL_THRESHOLD;
+	}
+
+}
@@ -0,0 +1,9 @@
+package neural;
+
+/**
+ * Element format of the matrices.
+ */
+public enum Precision {
+	FLOAT32,
+	FLOAT64
+}
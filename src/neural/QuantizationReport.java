@@ -0,0 +1,89 @@
+package neural;
+
+/**
+ * Accuracy delta of a QuantizedNetwork, see QuantizedNetwork.compare(NeuralNetwork, DataSet).
+ */
+public class QuantizationReport {
+	
+	private final EvaluationReport reference;
+	private final EvaluationReport quantized;
+	private final double agreement;
+	private final double maxError;
+	private final double meanError;
+	private final long referenceBytes;
+	private final long quantizedBytes;
+	
+	public QuantizationReport(EvaluationReport reference, EvaluationReport quantized, double agreement, double maxError, double meanError, long referenceBytes, long quantizedBytes) {
+		this.reference = reference;
+		this.quantized = quantized;
+		this.agreement = agreement;
+		this.maxError = maxError;
+		this.meanError = meanError;
+		this.referenceBytes = referenceBytes;
+		this.quantizedBytes = quantizedBytes;
+	}
+	
+	/**
+	 * @return Evaluation of the original network
+	 */
+	public EvaluationReport getReference() {
+		return reference;
+	}
+	
+	/**
+	 * @return Evaluation of the quantized network
+	 */
+	public EvaluationReport getQuantized() {
+		return quantized;
+	}
+	
+	/**
+	 * @return Accuracy of the quantized network minus the accuracy of the original one
+	 */
+	public double getAccuracyDelta() {
+		return quantized.getAccuracy() - reference.getAccuracy();
+	}
+	
+	/**
+	 * @return Ratio of the samples both networks predict as the same class
+	 */
+	public double getAgreement() {
+		return agreement;
+	}
+	
+	/**
+	 * @return Largest absolute difference of an output value
+	 */
+	public double getMaxError() {
+		return maxError;
+	}
+	
+	/**
+	 * @return Mean absolute difference of the output values
+	 */
+	public double getMeanError() {
+		return meanError;
+	}
+	
+	/**
+	 * @return Size of the weights and biases of the original network in bytes
+	 */
+	public long getReferenceBytes() {
+		return referenceBytes;
+	}
+	
+	/**
+	 * @return Size of the weights, scales and biases of the quantized network in bytes
+	 */
+	public long getQuantizedBytes() {
+		return quantizedBytes;
+	}
+	
+	@Override
+	public String toString() {
+		return "Accuracy: " + reference.getAccuracy() * 100 + " % -> " + quantized.getAccuracy() * 100 + " % (delta " + this.getAccuracyDelta() * 100 + " %)"
+				+ ", agreement: " + agreement * 100 + " %, output error max: " + maxError + " mean: " + meanError
+				+ ", weights: " + referenceBytes + " -> " + quantizedBytes + " bytes";
+	}
+
+}
@@ -0,0 +1,498 @@
+package neural;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.concurrent.RecursiveAction;
+
+import neural.ActivationFunctions.Function;
+
+/**
+ * Inference-only copy of a trained NeuralNetwork with int8 weights. Every weight row has its own
+ * scale, the layer inputs are quantized to int8 as well, so the products are integer dot products
+ * with int32 accumulation, which are dequantized before the bias and the activation.
+ * The input scales come from a calibration DataSet, without one they are calculated for every sample.
+ * The network is immutable, so any number of threads may predict with it concurrently.
+ */
+public class QuantizedNetwork {
+	
+	private static final int MAGIC = 0x514E4E31; // "QNN1"
+	private static final int GRAIN = 32;
+	/** Smallest calibrated input range, so a layer input that was always zero keeps a fixed scale. */
+	private static final double MIN_CALIBRATED_MAX = 1e-12;
+	
+	private final int[] layerSizes;
+	private final byte[][] weights;
+	private final float[][] rowScales;
+	private final float[][] biases;
+	private final float[] inputScales;
+	private final boolean calibrated;
+	private final Function[] functions;
+	private final boolean fastMath;
+	private final Activation[] activations;
+	private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+	
+	private QuantizedNetwork(int[] layerSizes, byte[][] weights, float[][] rowScales, float[][] biases, float[] inputScales, boolean calibrated, Function[] functions, boolean fastMath) {
+		this.layerSizes = layerSizes;
+		this.weights = weights;
+		this.rowScales = rowScales;
+		this.biases = biases;
+		this.inputScales = inputScales;
+		this.calibrated = calibrated;
+		this.functions = functions;
+		this.fastMath = fastMath;
+		this.activations = new Activation[functions.length];
+		for (int i=0; i<functions.length; i++) {
+			this.activations[i] = fastMath ? ActivationFunctions.fast(functions[i]) : functions[i];
+		}
+	}
+	
+	/**
+	 * Quantizes a trained network, the layer inputs are quantized with the scale of every sample.
+	 * @param network Trained network with the built-in activation functions
+	 * @return The quantized network
+	 */
+	public static QuantizedNetwork quantize(NeuralNetwork network) {
+		return QuantizedNetwork.quantize(network, null);
+	}
+	
+	/**
+	 * Quantizes a trained network. The calibration data is predicted by the network, the largest absolute
+	 * input of every layer becomes the fixed scale of its input, larger values of other data are clamped.
+	 * @param network Trained network with the built-in activation functions
+	 * @param calibrationSet Representative data, or null to quantize the inputs with the scale of every sample
+	 * @return The quantized network
+	 */
+	public static QuantizedNetwork quantize(NeuralNetwork network, DataSet calibrationSet) {
+		int[] sizes = network.getLayerSizes().clone();
+		int layers = sizes.length - 1;
+		byte[][] weights = new byte[layers][];
+		float[][] rowScales = new float[layers][];
+		float[][] biases = new float[layers][];
+		Function[] functions = new Function[layers];
+		for (int l=0; l<layers; l++) {
+			Layer layer = network.getLayer(l);
+			if (!(layer.getActivation() instanceof Function)) {
+				throw new IllegalArgumentException("Only the built-in activation functions can be quantized.");
+			}
+			functions[l] = (Function) layer.getActivation();
+			
+			Matrix w = layer.getData();
+			int n = w.getN(), k = w.getM();
+			weights[l] = new byte[n * k];
+			rowScales[l] = new float[n];
+			biases[l] = new float[n];
+			double[] row = new double[k];
+			for (int i=0; i<n; i++) {
+				double max = 0;
+				for (int j=0; j<k; j++) {
+					row[j] = w.get(i, j);
+					max = Math.max(max, Math.abs(row[j]));
+				}
+				rowScales[l][i] = (float) (max / 127);
+				Kernels.quantize(weights[l], i * k, row, 0, k, max == 0 ? 0 : 127 / max);
+				biases[l][i] = (float) layer.getBias().get(i, 0);
+			}
+		}
+		
+		float[] inputScales = new float[layers];
+		boolean calibrated = calibrationSet != null && calibrationSet.size() > 0;
+		if (calibrated) {
+			double[] max = QuantizedNetwork.calibrate(network, calibrationSet);
+			for (int l=0; l<layers; l++) {
+				inputScales[l] = (float) (Math.max(max[l], MIN_CALIBRATED_MAX) / 127);
+			}
+		}
+		
+		QuantizedNetwork quantized = new QuantizedNetwork(sizes, weights, rowScales, biases, inputScales, calibrated, functions, network.isFastMath());
+		printInfo("Network quantized to int8, " + quantized.getWeightBytes() + " bytes of weights"
+				+ (calibrated ? ", calibrated with " + calibrationSet.size() + " data." : "."));
+		return quantized;
+	}
+	
+	/**
+	 * @return The largest absolute input of every layer over the calibration data
+	 */
+	private static double[] calibrate(NeuralNetwork network, DataSet calibrationSet) {
+		int layers = network.getLayerSizes().length - 1;
+		double[] max = new double[layers];
+		double[] input = new double[network.getInputsSize()];
+		try {
+			Workspace workspace = network.getWorkspace();
+			for (Data d: calibrationSet.getData()) {
+				QuantizedNetwork.fillInput(d, input);
+				for (double v: input) {
+					max[0] = Math.max(max[0], Math.abs(v));
+				}
+				workspace.reset();
+				Matrix inputs = workspace.getInputs();
+				inputs.setCol(0, Matrix.wrap(input, input.length, 1));
+				network.forward(workspace, inputs);
+				for (int l=1; l<layers; l++) {
+					Matrix feed = workspace.getCalculatedFeed(l - 1);
+					for (int i=0; i<feed.getN(); i++) {
+						max[l] = Math.max(max[l], Math.abs(feed.get(i, 0)));
+					}
+				}
+			}
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		return max;
+	}
+	
+	/**
+	 * Copies the inputs of a data into a vector, the rows of a matrix one after another.
+	 */
+	private static void fillInput(Data data, double[] input) {
+		if (data.isSparse()) {
+			SparseMatrix sparse = data.getSparseInputs();
+			if (sparse.getN() != input.length || sparse.getM() != 1) {
+				throw new IllegalArgumentException("Dimensions do not matches.");
+			}
+			Arrays.fill(input, 0);
+			int[] rowPtr = sparse.getRowPtr();
+			double[] vals = sparse.getValues();
+			for (int i=0; i<input.length; i++) {
+				if (rowPtr[i] < rowPtr[i+1]) {
+					input[i] = vals[rowPtr[i]];
+				}
+			}
+			return;
+		}
+		
+		Matrix inputs = data.getInputs();
+		if (inputs.getElementsCount() != input.length) {
+			throw new IllegalArgumentException("Dimensions do not matches.");
+		}
+		int idx = 0;
+		for (int i=0; i<inputs.getN(); i++) {
+			for (int j=0; j<inputs.getM(); j++) {
+				input[idx++] = inputs.get(i, j);
+			}
+		}
+	}
+	
+	/**
+	 * Predicts an input vector into a buffer of the caller.
+	 * @param input Input values, getInputsSize() elements
+	 * @param output Destination of the prediction, getTargetsSize() elements
+	 */
+	public void predict(double[] input, double[] output) {
+		if (input.length != this.getInputsSize() || output.length < this.getTargetsSize()) {
+			throw new IllegalArgumentException("Dimensions do not matches.");
+		}
+		
+		Buffers b = this.buffers.get();
+		double[] x = input;
+		for (int l=0; l<this.weights.length; l++) {
+			int n = this.layerSizes[l + 1], k = this.layerSizes[l];
+			double scale = this.inputScales[l];
+			if (!this.calibrated) {
+				double max = 0;
+				for (int j=0; j<k; j++) {
+					max = Math.max(max, Math.abs(x[j]));
+				}
+				scale = max / 127;
+			}
+			Kernels.quantize(b.quantized, 0, x, 0, k, scale == 0 ? 0 : 1 / scale);
+			
+			double[] y = l == this.weights.length - 1 ? output : b.outputs[l];
+			float[] rowScale = this.rowScales[l];
+			float[] bias = this.biases[l];
+			Kernels.gemv(n, k, this.weights[l], b.quantized, b.sums);
+			for (int i=0; i<n; i++) {
+				y[i] = b.sums[i] * (rowScale[i] * scale) + bias[i];
+			}
+			this.activations[l].activate(y, 0, n);
+			x = y;
+		}
+	}
+	
+	/**
+	 * Predicts a data, the data is not changed.
+	 * @param data Data
+	 * @return The prediction
+	 */
+	public double[] predict(Data data) {
+		Buffers b = this.buffers.get();
+		QuantizedNetwork.fillInput(data, b.input);
+		double[] output = new double[this.getTargetsSize()];
+		this.predict(b.input, output);
+		return output;
+	}
+	
+	/**
+	 * Predicts all data of a data set, split between the threads of the shared pool.
+	 * @param dataSet Data set
+	 * @return The predictions in the order of the data
+	 */
+	public double[][] predict(DataSet dataSet) {
+		double[][] outputs = new double[dataSet.size()][this.getTargetsSize()];
+		Parallel.invoke(new PredictTask(dataSet, outputs, 0, dataSet.size()));
+		return outputs;
+	}
+	
+	/**
+	 * Evaluates the classification of a DataSet, see NeuralNetwork.evaluate(DataSet).
+	 * @param dataSet Test dataset, the targets mark the classes
+	 * @return Accuracy, per-class precision and recall and the confusion matrix
+	 */
+	public EvaluationReport evaluate(DataSet dataSet) {
+		long start = System.currentTimeMillis();
+		double[][] outputs = this.predict(dataSet);
+		return new EvaluationReport(QuantizedNetwork.confusion(dataSet, outputs), System.currentTimeMillis() - start);
+	}
+	
+	/**
+	 * Compares the quantized network with the network it was created from.
+	 * @param reference The original network
+	 * @param dataSet Test dataset, the targets mark the classes
+	 * @return Accuracies of both networks, agreement of their classes and the output errors
+	 */
+	public QuantizationReport compare(NeuralNetwork reference, DataSet dataSet) {
+		long start = System.currentTimeMillis();
+		double[][] expected = reference.predictBatch(dataSet);
+		EvaluationReport referenceReport = new EvaluationReport(QuantizedNetwork.confusion(dataSet, expected), System.currentTimeMillis() - start);
+		
+		start = System.currentTimeMillis();
+		double[][] outputs = this.predict(dataSet);
+		EvaluationReport quantizedReport = new EvaluationReport(QuantizedNetwork.confusion(dataSet, outputs), System.currentTimeMillis() - start);
+		
+		long agreed = 0;
+		double maxError = 0, errorSum = 0;
+		for (int s=0; s<outputs.length; s++) {
+			if (QuantizedNetwork.argmax(expected[s]) == QuantizedNetwork.argmax(outputs[s])) {
+				agreed++;
+			}
+			for (int i=0; i<outputs[s].length; i++) {
+				double error = Math.abs(outputs[s][i] - expected[s][i]);
+				maxError = Math.max(maxError, error);
+				errorSum += error;
+			}
+		}
+		long values = (long) outputs.length * this.getTargetsSize();
+		long referenceBytes = 0;
+		for (int l=0; l<this.weights.length; l++) {
+			long elements = (long) this.layerSizes[l + 1] * (this.layerSizes[l] + 1);
+			referenceBytes += elements * (reference.getPrecision() == Precision.FLOAT32 ? 4 : 8);
+		}
+		return new QuantizationReport(referenceReport, quantizedReport, outputs.length == 0 ? 0 : (double) agreed / outputs.length,
+				maxError, values == 0 ? 0 : errorSum / values, referenceBytes, this.getWeightBytes());
+	}
+	
+	private static int[][] confusion(DataSet dataSet, double[][] outputs) {
+		int classes = outputs.length == 0 ? 0 : outputs[0].length;
+		int[][] confusion = new int[classes][classes];
+		for (int s=0; s<outputs.length; s++) {
+			confusion[BatchPredictor.argmax(dataSet.getData(s).getTarget(), 0)][QuantizedNetwork.argmax(outputs[s])]++;
+		}
+		return confusion;
+	}
+	
+	private static int argmax(double[] values) {
+		int index = 0;
+		for (int i=1; i<values.length; i++) {
+			if (values[i] > values[index]) {
+				index = i;
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * Saves the network in a binary format: the shape and the flags, then per layer the activation function,
+	 * the input scale, the row scales, the int8 weights and the biases.
+	 * @param path The location of the file
+	 */
+	public void save(String path) {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(this.layerSizes.length);
+			for (int size: this.layerSizes) {
+				out.writeInt(size);
+			}
+			out.writeBoolean(this.fastMath);
+			out.writeBoolean(this.calibrated);
+			for (int l=0; l<this.weights.length; l++) {
+				out.writeByte(this.functions[l].ordinal());
+				out.writeFloat(this.inputScales[l]);
+				for (float scale: this.rowScales[l]) {
+					out.writeFloat(scale);
+				}
+				out.write(this.weights[l]);
+				for (float bias: this.biases[l]) {
+					out.writeFloat(bias);
+				}
+			}
+			printInfo("Quantized network successfully saved. [" + path + "]");
+		} catch (IOException e) {
+			printInfo("An error occurred while saving.");
+		}
+	}
+	
+	/**
+	 * Loads a network saved by save(String). The shape, the activation functions and the scales are
+	 * checked, so a damaged file is rejected instead of failing later in predict.
+	 * @param path The location of the file
+	 * @return The loaded network, null if the file could not be read or is not a valid quantized network
+	 */
+	public static QuantizedNetwork load(String path) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a quantized network.");
+			}
+			int count = in.readInt();
+			if (count < 2) {
+				throw new IOException("Invalid number of layers: " + (count - 1));
+			}
+			int[] sizes = new int[count];
+			for (int i=0; i<sizes.length; i++) {
+				sizes[i] = in.readInt();
+				if (sizes[i] <= 0) {
+					throw new IOException("Invalid layer size: " + sizes[i]);
+				}
+				if (i > 0 && (long) sizes[i] * sizes[i-1] > Integer.MAX_VALUE) {
+					throw new IOException("Layer too large: " + sizes[i] + " x " + sizes[i-1]);
+				}
+			}
+			boolean fastMath = in.readBoolean();
+			boolean calibrated = in.readBoolean();
+			int layers = sizes.length - 1;
+			byte[][] weights = new byte[layers][];
+			float[][] rowScales = new float[layers][];
+			float[][] biases = new float[layers][];
+			float[] inputScales = new float[layers];
+			Function[] functions = new Function[layers];
+			for (int l=0; l<layers; l++) {
+				int n = sizes[l + 1];
+				int function = in.readUnsignedByte();
+				if (function >= Function.values().length) {
+					throw new IOException("Unknown activation function: " + function);
+				}
+				functions[l] = Function.values()[function];
+				inputScales[l] = in.readFloat();
+				if (!(inputScales[l] >= 0) || Float.isInfinite(inputScales[l]) || (calibrated && inputScales[l] == 0)) {
+					throw new IOException("Invalid input scale: " + inputScales[l]);
+				}
+				rowScales[l] = new float[n];
+				for (int i=0; i<n; i++) {
+					rowScales[l][i] = in.readFloat();
+				}
+				weights[l] = new byte[n * sizes[l]];
+				in.readFully(weights[l]);
+				biases[l] = new float[n];
+				for (int i=0; i<n; i++) {
+					biases[l][i] = in.readFloat();
+				}
+			}
+			printInfo("Quantized network successfully loaded. [" + path + "]");
+			return new QuantizedNetwork(sizes, weights, rowScales, biases, inputScales, calibrated, functions, fastMath);
+		} catch (Exception e) {
+			printInfo("An error occurred while loading. " + e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * @return Size of the weights, scales and biases in bytes
+	 */
+	public long getWeightBytes() {
+		long bytes = 0;
+		for (int l=0; l<this.weights.length; l++) {
+			bytes += this.weights[l].length + 4L * (this.rowScales[l].length + this.biases[l].length + 1);
+		}
+		return bytes;
+	}
+	
+	/**
+	 * @return True, if the layer inputs have fixed scales from a calibration
+	 */
+	public boolean isCalibrated() {
+		return calibrated;
+	}
+	
+	public int[] getLayerSizes() {
+		return layerSizes.clone();
+	}
+	
+	public int getInputsSize() {
+		return this.layerSizes[0];
+	}
+	
+	public int getTargetsSize() {
+		return this.layerSizes[this.layerSizes.length - 1];
+	}
+	
+	/**
+	 * Prints a text to the console.
+	 * @param text A text
+	 */
+	private static void printInfo(String text) {
+		if (!NeuralNetwork.INFO_ENABLED) return;
+		String time = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss").format(Calendar.getInstance().getTime());
+		System.out.println("[QuantizedNetwork | " + time + "] " + text);
+	}
+	
+	/**
+	 * Per-thread buffers of a pass.
+	 */
+	private class Buffers {
+		final double[] input = new double[getInputsSize()];
+		final byte[] quantized;
+		final int[] sums;
+		final double[][] outputs = new double[weights.length][];
+		
+		Buffers() {
+			int max = 0;
+			for (int l=0; l<weights.length; l++) {
+				max = Math.max(max, Math.max(layerSizes[l], layerSizes[l + 1]));
+				this.outputs[l] = new double[layerSizes[l + 1]];
+			}
+			this.quantized = new byte[max];
+			this.sums = new int[max];
+		}
+	}
+	
+	/**
+	 * Predicts the data from ... to - 1, split in halves between the threads.
+	 */
+	private class PredictTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final DataSet dataSet;
+		private final double[][] outputs;
+		private final int from, to;
+		
+		PredictTask(DataSet dataSet, double[][] outputs, int from, int to) {
+			this.dataSet = dataSet;
+			this.outputs = outputs;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (NeuralNetwork.PARALLELISM > 1 && this.to - this.from > GRAIN) {
+				int mid = (this.from + this.to) >>> 1;
+				invokeAll(new PredictTask(this.dataSet, this.outputs, this.from, mid), new PredictTask(this.dataSet, this.outputs, mid, this.to));
+				return;
+			}
+			
+			Buffers b = buffers.get();
+			for (int s=this.from; s<this.to; s++) {
+				QuantizedNetwork.fillInput(this.dataSet.getData(s), b.input);
+				predict(b.input, this.outputs[s]);
+			}
+		}
+	}
+
+}
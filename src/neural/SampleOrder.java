@@ -0,0 +1,70 @@
+package neural;
+
+import java.util.Random;
+
+/**
+ * Draws the sample indices of a training run. In epoch mode the indices walk a shuffled permutation
+ * of the dataset, which is reshuffled after every pass, so every sample is seen once per epoch.
+ * Otherwise every index is drawn independently.
+ */
+class SampleOrder {
+	
+	private final Random random;
+	private final int size;
+	private final int[] permutation;
+	private int position;
+	
+	/**
+	 * @param size Number of samples
+	 * @param epochs True, to walk shuffled permutations
+	 * @param random Source of the order
+	 */
+	SampleOrder(int size, boolean epochs, Random random) {
+		this.random = random;
+		this.size = size;
+		this.permutation = epochs ? new int[size] : null;
+		if (epochs) {
+			for (int i=0; i<size; i++) {
+				this.permutation[i] = i;
+			}
+			this.position = size;
+		}
+	}
+	
+	/**
+	 * @return Index of the next sample
+	 */
+	int next() {
+		if (this.permutation == null) {
+			return this.random.nextInt(this.size);
+		}
+		if (this.position == this.size) {
+			this.shuffle();
+		}
+		return this.permutation[this.position++];
+	}
+	
+	/**
+	 * Fills an array with the next sample indices.
+	 * @param samples Destination
+	 */
+	void next(int[] samples) {
+		for (int j=0; j<samples.length; j++) {
+			samples[j] = this.next();
+		}
+	}
+	
+	/**
+	 * Fisher-Yates shuffle of the permutation.
+	 */
+	private void shuffle() {
+		for (int i=this.size-1; i>0; i--) {
+			int j = this.random.nextInt(i + 1);
+			int tmp = this.permutation[i];
+			this.permutation[i] = this.permutation[j];
+			this.permutation[j] = tmp;
+		}
+		this.position = 0;
+	}
+
+}
@@ -0,0 +1,164 @@
+package neural;
+
+/**
+ * A sparse matrix in compressed sparse row (CSR) format. Only the non zero values are stored,
+ * the non zeros of row i are values[rowPtr[i]] ... values[rowPtr[i+1] - 1] in the columns colIdx[...].
+ * Used for mostly zero inputs like images, where the first layer only has to touch the non zeros.
+ */
+public class SparseMatrix {
+	
+	private final int n, m;
+	private final int[] rowPtr;
+	private final int[] colIdx;
+	private final double[] values;
+	
+	/**
+	 * Creates a CSR matrix from its arrays. The arrays are not copied.
+	 * @param n Number of rows
+	 * @param m Number of columns
+	 * @param rowPtr Start of every row in colIdx and values, with n + 1 elements
+	 * @param colIdx Column of every non zero
+	 * @param values Non zero values
+	 */
+	public SparseMatrix(int n, int m, int[] rowPtr, int[] colIdx, double[] values) {
+		this.n = n;
+		this.m = m;
+		this.rowPtr = rowPtr;
+		this.colIdx = colIdx;
+		this.values = values;
+	}
+	
+	/**
+	 * Creates a sparse copy of a dense matrix.
+	 * @param matrix Dense matrix
+	 * @return SparseMatrix object
+	 */
+	public static SparseMatrix fromDense(Matrix matrix) {
+		int nnz = 0;
+		for (int i=0; i<matrix.getN(); i++) {
+			for (int j=0; j<matrix.getM(); j++) {
+				if (matrix.get(i, j) != 0) nnz++;
+			}
+		}
+		
+		int[] rowPtr = new int[matrix.getN() + 1];
+		int[] colIdx = new int[nnz];
+		double[] values = new double[nnz];
+		int k = 0;
+		for (int i=0; i<matrix.getN(); i++) {
+			for (int j=0; j<matrix.getM(); j++) {
+				double val = matrix.get(i, j);
+				if (val != 0) {
+					colIdx[k] = j;
+					values[k++] = val;
+				}
+			}
+			rowPtr[i+1] = k;
+		}
+		return new SparseMatrix(matrix.getN(), matrix.getM(), rowPtr, colIdx, values);
+	}
+	
+	/**
+	 * Creates a dense copy of the matrix.
+	 * @param precision Precision of the copy
+	 * @return Matrix object
+	 */
+	public Matrix toDense(Precision precision) {
+		Matrix matrix = new Matrix(this.n, this.m, precision);
+		for (int i=0; i<this.n; i++) {
+			for (int k=this.rowPtr[i]; k<this.rowPtr[i+1]; k++) {
+				matrix.setValue(i, this.colIdx[k], this.values[k]);
+			}
+		}
+		return matrix;
+	}
+	
+	public Matrix toDense() {
+		return this.toDense(Precision.FLOAT64);
+	}
+	
+	/**
+	 * Reshapes the matrix into a n*m x 1 vector.
+	 * @return SparseMatrix object
+	 */
+	public SparseMatrix toVector() {
+		if (this.m == 1) return this;
+		
+		int[] rowPtr = new int[this.n * this.m + 1];
+		int[] colIdx = new int[this.values.length];
+		for (int i=0; i<this.n; i++) {
+			for (int k=this.rowPtr[i]; k<this.rowPtr[i+1]; k++) {
+				rowPtr[i * this.m + this.colIdx[k] + 1]++;
+			}
+		}
+		for (int i=0; i<this.n * this.m; i++) {
+			rowPtr[i+1] += rowPtr[i];
+		}
+		return new SparseMatrix(this.n * this.m, 1, rowPtr, colIdx, this.values.clone());
+	}
+	
+	/**
+	 * Optimizes the matrix. All values will be between 0 and 1.
+	 */
+	public void optimize() {
+		double max = -Double.MAX_VALUE;
+		for (double val: this.values) {
+			if (val > max) max = val;
+		}
+		for (int k=0; k<this.values.length; k++) {
+			this.values[k] /= max;
+		}
+	}
+	
+	public SparseMatrix copy() {
+		return new SparseMatrix(this.n, this.m, this.rowPtr.clone(), this.colIdx.clone(), this.values.clone());
+	}
+	
+	/**
+	 * @return Number of stored non zeros
+	 */
+	public int getNonZeroCount() {
+		return this.values.length;
+	}
+	
+	public int getN() {
+		return n;
+	}
+	
+	public int getM() {
+		return m;
+	}
+	
+	public int getElementsCount() {
+		return this.n * this.m;
+	}
+	
+	public boolean isVector() {
+		return this.m == 1 || this.n == 1;
+	}
+	
+	public int[] getRowPtr() {
+		return rowPtr;
+	}
+	
+	public int[] getColIdx() {
+		return colIdx;
+	}
+	
+	/**
+	 * Writes the row of every non zero into rows, the expanded form of rowPtr.
+	 * @param rows Destination with at least getNonZeroCount() elements
+	 */
+	void expandRows(int[] rows) {
+		for (int i=0; i<this.n; i++) {
+			for (int k=this.rowPtr[i]; k<this.rowPtr[i+1]; k++) {
+				rows[k] = i;
+			}
+		}
+	}
+	
+	public double[] getValues() {
+		return values;
+	}
+
+}
@@ -0,0 +1,175 @@
+package neural;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The flat backing store of a Matrix. The implementations hold the values in different formats,
+ * the Matrix only addresses them by index.
+ */
+abstract class Storage {
+	
+	abstract double get(int index);
+	
+	abstract void set(int index, double value);
+	
+	abstract int length();
+	
+	abstract Precision getPrecision();
+	
+	/**
+	 * Allocates a zeroed storage.
+	 * @param precision Element format
+	 * @param length Number of elements
+	 * @return Storage object
+	 */
+	static Storage allocate(Precision precision, int length) {
+		switch (precision) {
+		case FLOAT32:
+			return new FloatArray(new float[length]);
+		default:
+			return new DoubleArray(new double[length]);
+		}
+	}
+	
+	/**
+	 * Storage on a double array.
+	 */
+	static final class DoubleArray extends Storage {
+		
+		final double[] array;
+		
+		DoubleArray(double[] array) {
+			this.array = array;
+		}
+		
+		@Override
+		double get(int index) {
+			return this.array[index];
+		}
+		
+		@Override
+		void set(int index, double value) {
+			this.array[index] = value;
+		}
+		
+		@Override
+		int length() {
+			return this.array.length;
+		}
+		
+		@Override
+		Precision getPrecision() {
+			return Precision.FLOAT64;
+		}
+	}
+	
+	/**
+	 * Storage on a float array.
+	 */
+	static final class FloatArray extends Storage {
+		
+		final float[] array;
+		
+		FloatArray(float[] array) {
+			this.array = array;
+		}
+		
+		@Override
+		double get(int index) {
+			return this.array[index];
+		}
+		
+		@Override
+		void set(int index, double value) {
+			this.array[index] = (float) value;
+		}
+		
+		@Override
+		int length() {
+			return this.array.length;
+		}
+		
+		@Override
+		Precision getPrecision() {
+			return Precision.FLOAT32;
+		}
+	}
+
+	/**
+	 * Storage on a direct buffer of doubles outside of the Java heap. The buffer is owned by an OffHeapArena,
+	 * after the arena is closed every access throws a NullPointerException instead of touching freed memory.
+	 */
+	static final class OffHeapDoubles extends Storage {
+		
+		private java.nio.DoubleBuffer buffer;
+		private final int length;
+		
+		OffHeapDoubles(ByteBuffer bytes) {
+			this.buffer = bytes.asDoubleBuffer();
+			this.length = this.buffer.capacity();
+		}
+		
+		@Override
+		double get(int index) {
+			return this.buffer.get(index);
+		}
+		
+		@Override
+		void set(int index, double value) {
+			this.buffer.put(index, value);
+		}
+		
+		@Override
+		int length() {
+			return this.length;
+		}
+		
+		@Override
+		Precision getPrecision() {
+			return Precision.FLOAT64;
+		}
+		
+		void release() {
+			this.buffer = null;
+		}
+	}
+	
+	/**
+	 * Storage on a direct buffer of floats outside of the Java heap.
+	 */
+	static final class OffHeapFloats extends Storage {
+		
+		private java.nio.FloatBuffer buffer;
+		private final int length;
+		
+		OffHeapFloats(ByteBuffer bytes) {
+			this.buffer = bytes.asFloatBuffer();
+			this.length = this.buffer.capacity();
+		}
+		
+		@Override
+		double get(int index) {
+			return this.buffer.get(index);
+		}
+		
+		@Override
+		void set(int index, double value) {
+			this.buffer.put(index, (float) value);
+		}
+		
+		@Override
+		int length() {
+			return this.length;
+		}
+		
+		@Override
+		Precision getPrecision() {
+			return Precision.FLOAT32;
+		}
+		
+		void release() {
+			this.buffer = null;
+		}
+	}
+
+}
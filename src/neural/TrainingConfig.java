@@ -0,0 +1,212 @@
+package neural;
+
+import java.util.Random;
+
+/**
+ * Settings of a NeuralNetwork.train(DataSet, TrainingConfig) run.
+ */
+public class TrainingConfig {
+	
+	private int batchSize = 32;
+	private int iterations = -1;
+	private int epochs;
+	private int threads = 1;
+	private int accumulationSteps = 1;
+	private Long seed;
+	private boolean asynchronous;
+	private DataSet validationSet;
+	private int validationInterval = 1000;
+	private int patience;
+	private double minDelta;
+	private long timeLimit;
+	private boolean restoreBest = true;
+	
+	public TrainingConfig() { }
+	
+	public TrainingConfig(int batchSize) {
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * @return Number of samples stacked into one matrix. The weights are updated once per batch with the averaged gradient.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * @return Number of batches to train, NeuralNetwork.TRAINING_ITERATIONS if it is not set.
+	 */
+	public int getIterations() {
+		return iterations < 0 ? NeuralNetwork.TRAINING_ITERATIONS : iterations;
+	}
+	
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+	
+	/**
+	 * @return Number of passes over the dataset, 0 if the batches are drawn at random for getIterations() batches.
+	 */
+	public int getEpochs() {
+		return epochs;
+	}
+	
+	/**
+	 * Trains in epochs. Every epoch walks a new shuffled order of the dataset, so every sample is seen once per epoch.
+	 * If iterations are set too, they limit the number of batches.
+	 * @param epochs Number of passes over the dataset
+	 */
+	public void setEpochs(int epochs) {
+		this.epochs = epochs;
+	}
+	
+	/**
+	 * @param dataSetSize Number of samples in the dataset
+	 * @return Number of batches of the run
+	 */
+	int getBatches(int dataSetSize) {
+		if (this.epochs > 0) {
+			int batches = (int) (((long) this.epochs * dataSetSize + this.batchSize - 1) / this.batchSize);
+			return this.iterations < 0 ? batches : Math.min(batches, this.iterations);
+		}
+		return this.getIterations();
+	}
+	
+	/**
+	 * @param dataSetSize Number of samples in the dataset
+	 * @param random Source of the order
+	 * @return The sample order of a run
+	 */
+	SampleOrder createSampleOrder(int dataSetSize, Random random) {
+		return new SampleOrder(dataSetSize, this.epochs > 0, random);
+	}
+
+	/**
+	 * @return Number of worker threads. With more than one, every batch is split between the workers.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+	
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	/**
+	 * @return Seed of the sample selection, or null for a random one
+	 */
+	public Long getSeed() {
+		return seed;
+	}
+	
+	/**
+	 * With a seed, the trained weights only depend on the seed, the data and the number of threads.
+	 * @param seed Seed of the sample selection
+	 */
+	public void setSeed(Long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return Number of batches whose gradients are summed before the network is updated once
+	 */
+	public int getAccumulationSteps() {
+		return accumulationSteps;
+	}
+	
+	/**
+	 * Accumulates the gradients of several batches into one update, like a batch accumulationSteps times as large.
+	 * Asynchronous training ignores it.
+	 * @param accumulationSteps Number of batches per update
+	 */
+	public void setAccumulationSteps(int accumulationSteps) {
+		this.accumulationSteps = accumulationSteps;
+	}
+	
+	public boolean isAsynchronous() {
+		return asynchronous;
+	}
+	
+	/**
+	 * In asynchronous mode every thread trains its own batches and updates the shared weights
+	 * without locks. The result is not deterministic, even with a seed.
+	 * @param asynchronous True, for asynchronous training with more than one thread
+	 */
+	public void setAsynchronous(boolean asynchronous) {
+		this.asynchronous = asynchronous;
+	}
+
+	public DataSet getValidationSet() {
+		return validationSet;
+	}
+	
+	/**
+	 * @param validationSet Held-out dataset, not empty, evaluated every validation interval, or null
+	 */
+	public void setValidationSet(DataSet validationSet) {
+		this.validationSet = validationSet;
+	}
+	
+	/**
+	 * @return Number of batches between two evaluations of the monitored loss
+	 */
+	public int getValidationInterval() {
+		return validationInterval;
+	}
+	
+	public void setValidationInterval(int validationInterval) {
+		this.validationInterval = validationInterval;
+	}
+	
+	/**
+	 * @return Number of evaluations without improvement after which the training stops, 0 to never stop early
+	 */
+	public int getPatience() {
+		return patience;
+	}
+	
+	public void setPatience(int patience) {
+		this.patience = patience;
+	}
+	
+	/**
+	 * The monitored loss is the mean squared error per sample, of the validation set or of the training
+	 * batches of an interval.
+	 * @return Amount by which the monitored loss has to decrease to count as an improvement
+	 */
+	public double getMinDelta() {
+		return minDelta;
+	}
+	
+	public void setMinDelta(double minDelta) {
+		this.minDelta = minDelta;
+	}
+	
+	/**
+	 * @return Wall-clock limit of the training in milliseconds, 0 for none
+	 */
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+	
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+	
+	/**
+	 * @return True, if the weights of the best evaluation are restored at the end of a monitored run
+	 */
+	public boolean isRestoreBest() {
+		return restoreBest;
+	}
+	
+	public void setRestoreBest(boolean restoreBest) {
+		this.restoreBest = restoreBest;
+	}
+
+}
@@ -0,0 +1,128 @@
+package neural;
+
+import neural.TrainingResult.StopReason;
+
+/**
+ * Decides when a training run stops. Every step reports its training loss; a NaN or infinite
+ * loss stops the run at once, as does the time limit of the config. If the config has a validation
+ * set or a patience, the controller evaluates the monitored loss every validation interval: the
+ * loss of the validation set, or without one the mean training loss since the last evaluation.
+ * The weights of the best evaluation are kept in a snapshot, the run stops when the loss did not
+ * improve for the patience, and at the end the snapshot is restored if it is better than the last weights.
+ * <p>
+ * The methods are synchronized, so the threads of an asynchronous run may report their steps concurrently.
+ */
+class TrainingController {
+	
+	private final NeuralNetwork network;
+	private final TrainingConfig config;
+	private final DataSet validationSet;
+	private final boolean monitored;
+	private final long start;
+	private volatile StopReason stopReason;
+	private Matrix[] snapshot;
+	private double bestLoss = Double.POSITIVE_INFINITY;
+	private int evaluationsWithoutImprovement;
+	private double intervalLoss;
+	private long intervalSamples;
+	private int intervalSteps;
+	private long steps;
+	
+	TrainingController(NeuralNetwork network, TrainingConfig config) {
+		this.network = network;
+		this.config = config;
+		if (config.getValidationSet() != null && config.getValidationSet().size() == 0) {
+			throw new IllegalArgumentException("Empty validation set.");
+		}
+		this.validationSet = config.getValidationSet() == null ? null : config.getValidationSet().vectorized();
+		this.monitored = this.validationSet != null || config.getPatience() > 0;
+		this.start = System.currentTimeMillis();
+	}
+	
+	/**
+	 * @return True, if the run has to stop
+	 */
+	boolean isStopped() {
+		return this.stopReason != null;
+	}
+	
+	/**
+	 * Reports a finished step. The monitored training loss is the mean squared error per sample,
+	 * the same measure as NeuralNetwork.evaluateLoss, so minDelta means the same with and without
+	 * a validation set.
+	 * @param squaredSum Squared error summed over every output of every sample of the batch, NaN if the step failed
+	 * @param samples Number of samples of the batch
+	 */
+	void afterStep(double squaredSum, int samples) {
+		this.afterSteps(squaredSum, samples, 1);
+	}
+	
+	/**
+	 * Reports several finished steps at once, so the threads of an asynchronous run take the lock
+	 * only once per interval. The validation interval counts every step of the report.
+	 * @param squaredSum Squared error summed over the samples of all steps, NaN if a step failed
+	 * @param samples Number of samples of all steps
+	 * @param steps Number of steps
+	 */
+	synchronized void afterSteps(double squaredSum, long samples, int steps) {
+		this.steps += steps;
+		if (this.stopReason != null) return;
+		if (Double.isNaN(squaredSum) || Double.isInfinite(squaredSum)) {
+			this.stop(StopReason.DIVERGED);
+			return;
+		}
+		if (this.config.getTimeLimit() > 0 && System.currentTimeMillis() - this.start >= this.config.getTimeLimit()) {
+			this.stop(StopReason.TIME_LIMIT);
+			return;
+		}
+		if (!this.monitored) return;
+		
+		this.intervalLoss += squaredSum;
+		this.intervalSamples += samples;
+		this.intervalSteps += steps;
+		if (this.intervalSteps < this.config.getValidationInterval()) return;
+		
+		double monitoredLoss = this.validationSet == null ? this.intervalLoss / this.intervalSamples : this.network.evaluateLoss(this.validationSet);
+		this.intervalLoss = 0;
+		this.intervalSamples = 0;
+		this.intervalSteps = 0;
+		this.network.printInfo("Monitored loss: " + monitoredLoss);
+		if (Double.isNaN(monitoredLoss) || Double.isInfinite(monitoredLoss)) {
+			this.stop(StopReason.DIVERGED);
+		} else if (monitoredLoss < this.bestLoss - this.config.getMinDelta()) {
+			this.bestLoss = monitoredLoss;
+			this.evaluationsWithoutImprovement = 0;
+			if (this.config.isRestoreBest()) {
+				this.snapshot = this.network.snapshot(this.snapshot);
+			}
+		} else if (this.config.getPatience() > 0 && ++this.evaluationsWithoutImprovement >= this.config.getPatience()) {
+			this.stop(StopReason.EARLY_STOPPED);
+		}
+	}
+	
+	private void stop(StopReason reason) {
+		this.stopReason = reason;
+		this.network.printInfo("Training stopped: " + reason);
+	}
+	
+	/**
+	 * Ends the run and restores the best weights, if the last weights are worse.
+	 * @return Result of the run
+	 */
+	synchronized TrainingResult finish() {
+		boolean restored = false;
+		if (this.snapshot != null) {
+			double lastLoss = this.stopReason == StopReason.DIVERGED ? Double.NaN
+					: this.validationSet == null ? (this.intervalSamples == 0 ? this.bestLoss : this.intervalLoss / this.intervalSamples)
+					: this.network.evaluateLoss(this.validationSet);
+			if (!(lastLoss <= this.bestLoss)) {
+				this.network.restore(this.snapshot);
+				restored = true;
+			}
+		}
+		StopReason reason = this.stopReason == null ? StopReason.COMPLETED : this.stopReason;
+		double best = this.monitored && this.bestLoss != Double.POSITIVE_INFINITY ? this.bestLoss : Double.NaN;
+		return new TrainingResult(reason, this.steps, best, restored, System.currentTimeMillis() - this.start);
+	}
+
+}
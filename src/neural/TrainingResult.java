@@ -0,0 +1,70 @@
+package neural;
+
+/**
+ * Outcome of a NeuralNetwork.train(DataSet, TrainingConfig) run.
+ */
+public class TrainingResult {
+	
+	/**
+	 * Reason why a training run ended.
+	 */
+	public enum StopReason {
+		/** All batches of the config were trained. */
+		COMPLETED,
+		/** The monitored loss did not improve for the patience of the config. */
+		EARLY_STOPPED,
+		/** The training or validation loss became NaN or infinite. */
+		DIVERGED,
+		/** The time limit of the config was reached. */
+		TIME_LIMIT
+	}
+	
+	private final StopReason stopReason;
+	private final long steps;
+	private final double bestLoss;
+	private final boolean restored;
+	private final long elapsedMillis;
+	
+	public TrainingResult(StopReason stopReason, long steps, double bestLoss, boolean restored, long elapsedMillis) {
+		this.stopReason = stopReason;
+		this.steps = steps;
+		this.bestLoss = bestLoss;
+		this.restored = restored;
+		this.elapsedMillis = elapsedMillis;
+	}
+	
+	public StopReason getStopReason() {
+		return stopReason;
+	}
+	
+	/**
+	 * @return Number of trained batches
+	 */
+	public long getSteps() {
+		return steps;
+	}
+	
+	/**
+	 * @return Best monitored loss, NaN if the loss was not monitored
+	 */
+	public double getBestLoss() {
+		return bestLoss;
+	}
+	
+	/**
+	 * @return True, if the weights of the best evaluation were restored at the end
+	 */
+	public boolean isRestored() {
+		return restored;
+	}
+	
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+	
+	@Override
+	public String toString() {
+		return stopReason + " after " + steps + " steps in " + elapsedMillis + " ms, best loss: " + bestLoss + (restored ? " (restored)" : "");
+	}
+
+}
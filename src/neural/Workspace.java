@@ -0,0 +1,228 @@
+package neural;
+
+import java.util.Arrays;
+
+/**
+ * Execution context of the forward and backward passes of one thread. It holds the outputs of all
+ * layers and the other temporaries of a step, the layers themselves keep no state of a pass.
+ * The shapes of the per-layer buffers are computed from the layer sizes once and the buffers are
+ * reused by every step, so a steady-state training step does not allocate.
+ * <p>
+ * A workspace for mini-batches holds every sample of the batch in its own column.
+ * <p>
+ * If NeuralNetwork.WORKSPACE_DEBUG is enabled, reset fills the per-layer buffers and the loss with NaN,
+ * and the getters check on the first call after the reset that the buffer was not written since,
+ * through a reference kept from an earlier step.
+ */
+public class Workspace {
+	
+	private final int[] layerSizes;
+	private final Precision precision;
+	private final int batchSize;
+	private final Matrix[] calculatedFeeds;
+	private final Matrix[] gradients;
+	private final Matrix[] nextLosses;
+	private Gradients stepGradients;
+	private final Matrix loss;
+	private Matrix inputs;
+	private Matrix targets;
+	private boolean applyUpdates = true;
+	private boolean poisoned;
+	private long generation;
+	private final long[] feedChecks;
+	private final long[] gradientChecks;
+	private final long[] nextLossChecks;
+	private long lossCheck;
+	private long allocations;
+	
+	/**
+	 * Creates the buffers of a network.
+	 * @param layerSizes Sizes of the layers, starting with the input size
+	 * @param precision Element format of the buffers
+	 */
+	public Workspace(int[] layerSizes, Precision precision) {
+		this(layerSizes, precision, 1);
+	}
+	
+	/**
+	 * Creates the buffers of a network for mini-batches.
+	 * @param layerSizes Sizes of the layers, starting with the input size
+	 * @param precision Element format of the buffers
+	 * @param batchSize Number of samples in a batch
+	 */
+	public Workspace(int[] layerSizes, Precision precision, int batchSize) {
+		this.layerSizes = layerSizes.clone();
+		this.precision = precision;
+		this.batchSize = batchSize;
+		int layers = layerSizes.length - 1;
+		this.calculatedFeeds = new Matrix[layers];
+		this.gradients = new Matrix[layers];
+		this.nextLosses = new Matrix[layers];
+		for (int i=0; i<layers; i++) {
+			this.calculatedFeeds[i] = this.allocate(layerSizes[i+1], batchSize);
+			this.gradients[i] = this.allocate(layerSizes[i+1], batchSize);
+			this.nextLosses[i] = this.allocate(layerSizes[i], batchSize);
+		}
+		this.loss = this.allocate(layerSizes[layers], batchSize);
+		this.feedChecks = new long[layers];
+		this.gradientChecks = new long[layers];
+		this.nextLossChecks = new long[layers];
+	}
+	
+	private Matrix allocate(int n, int m) {
+		this.allocations++;
+		return new Matrix(n, m, this.precision);
+	}
+	
+	/**
+	 * @param index Index of the layer
+	 * @return Output of the layer after the activation
+	 */
+	public Matrix getCalculatedFeed(int index) {
+		if (this.poisoned && this.feedChecks[index] != this.generation) {
+			Workspace.checkPoisoned(this.calculatedFeeds[index]);
+			this.feedChecks[index] = this.generation;
+		}
+		return this.calculatedFeeds[index];
+	}
+	
+	/**
+	 * @param index Index of the layer
+	 * @return Scaled error gradient of the layer
+	 */
+	public Matrix getGradient(int index) {
+		if (this.poisoned && this.gradientChecks[index] != this.generation) {
+			Workspace.checkPoisoned(this.gradients[index]);
+			this.gradientChecks[index] = this.generation;
+		}
+		return this.gradients[index];
+	}
+	
+	/**
+	 * @param index Index of the layer
+	 * @return Loss propagated to the previous layer
+	 */
+	public Matrix getNextLoss(int index) {
+		if (this.poisoned && this.nextLossChecks[index] != this.generation) {
+			Workspace.checkPoisoned(this.nextLosses[index]);
+			this.nextLossChecks[index] = this.generation;
+		}
+		return this.nextLosses[index];
+	}
+	
+	/**
+	 * The gradients of a step are only materialized by mini-batches and deferred updates, they are allocated on the first call.
+	 * @return Weight and bias gradients of the last step, summed over its samples
+	 */
+	public Gradients getGradients() {
+		if (this.stepGradients == null) {
+			this.stepGradients = new Gradients(this.layerSizes, this.precision);
+			this.allocations += 2 * (this.layerSizes.length - 1);
+		}
+		return this.stepGradients;
+	}
+	
+	/**
+	 * @return Loss of the output layer
+	 */
+	public Matrix getLoss() {
+		if (this.poisoned && this.lossCheck != this.generation) {
+			Workspace.checkPoisoned(this.loss);
+			this.lossCheck = this.generation;
+		}
+		return this.loss;
+	}
+	
+	/**
+	 * @return The input samples of a batch, one per column
+	 */
+	public Matrix getInputs() {
+		if (this.inputs == null) {
+			this.inputs = this.allocate(this.layerSizes[0], this.batchSize);
+		}
+		return this.inputs;
+	}
+	
+	/**
+	 * @return The target samples of a batch, one per column
+	 */
+	public Matrix getTargets() {
+		if (this.targets == null) {
+			this.targets = this.allocate(this.layerSizes[this.layerSizes.length - 1], this.batchSize);
+		}
+		return this.targets;
+	}
+	
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	public boolean isApplyUpdates() {
+		return applyUpdates;
+	}
+	
+	/**
+	 * If false, a training step leaves the summed weight and bias gradients of the batch in the
+	 * gradients of the workspace instead of applying them to the network.
+	 * @param applyUpdates True, to update the network
+	 */
+	public void setApplyUpdates(boolean applyUpdates) {
+		this.applyUpdates = applyUpdates;
+	}
+	
+	/**
+	 * Starts a new step. Matrices of the workspace obtained before the reset must not be used after it.
+	 */
+	public void reset() {
+		if (NeuralNetwork.WORKSPACE_DEBUG) {
+			for (int i=0; i<this.calculatedFeeds.length; i++) {
+				this.calculatedFeeds[i].init(Double.NaN);
+				this.gradients[i].init(Double.NaN);
+				this.nextLosses[i].init(Double.NaN);
+			}
+			this.loss.init(Double.NaN);
+		}
+		this.generation++;
+		this.poisoned = NeuralNetwork.WORKSPACE_DEBUG;
+	}
+	
+	/**
+	 * Throws, if a matrix was written after the reset before it was obtained from the workspace.
+	 */
+	private static void checkPoisoned(Matrix matrix) {
+		for (int i=0; i<matrix.getN(); i++) {
+			for (int j=0; j<matrix.getM(); j++) {
+				if (!Double.isNaN(matrix.get(i, j))) {
+					throw new IllegalStateException("A workspace matrix was used after reset.");
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param layerSizes Sizes of the layers
+	 * @param precision Element format
+	 * @return True, if the workspace has the single sample buffers of this network shape
+	 */
+	public boolean matches(int[] layerSizes, Precision precision) {
+		return this.matches(layerSizes, precision, 1);
+	}
+	
+	/**
+	 * @param layerSizes Sizes of the layers
+	 * @param precision Element format
+	 * @param batchSize Number of samples in a batch
+	 * @return True, if the workspace has the buffers of this network shape and batch size
+	 */
+	public boolean matches(int[] layerSizes, Precision precision, int batchSize) {
+		return this.precision == precision && this.batchSize == batchSize && Arrays.equals(this.layerSizes, layerSizes);
+	}
+	
+	/**
+	 * @return Number of matrices allocated by the workspace so far. It does not grow in a steady state.
+	 */
+	public long getAllocationCount() {
+		return this.allocations;
+	}
+
+}
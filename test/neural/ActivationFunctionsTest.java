@@ -0,0 +1,138 @@
+package neural;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import neural.ActivationFunctions.FastFunction;
+import neural.ActivationFunctions.Function;
+
+/**
+ * Accuracy of the fast math activation functions against the exact ones, at the bounds documented
+ * in ActivationFunctions.FastFunction: 5e-6 for sigmoid and 1e-5 for tanh, and for their derivates
+ * calculated from the approximated outputs.
+ */
+public class ActivationFunctionsTest {
+	
+	private static final double SIGMOID_ERROR = 5e-6;
+	private static final double TANH_ERROR = 1e-5;
+	
+	/** Range of the sigmoid table and its points per unit. */
+	private static final int RANGE = 16;
+	private static final int STEPS = 64;
+	
+	/**
+	 * Inputs over [-24, 24] in steps of 1/1024, so every table interval is sampled 16 times
+	 * and the clamped region outside of [-16, 16] is covered as well.
+	 */
+	private static double[] sweep() {
+		int count = 48 * 1024 + 1;
+		double[] x = new double[count];
+		for (int i=0; i<count; i++) {
+			x[i] = -24 + i / 1024.0;
+		}
+		return x;
+	}
+	
+	/**
+	 * Inputs at the table points, next to them and in the middle of the intervals, where the
+	 * linear interpolation is the least accurate.
+	 */
+	private static double[] tableBoundaries() {
+		int points = 2 * RANGE * STEPS + 1;
+		double[] x = new double[4 * points];
+		for (int i=0; i<points; i++) {
+			double node = (double) i / STEPS - RANGE;
+			x[4 * i] = node;
+			x[4 * i + 1] = Math.nextUp(node);
+			x[4 * i + 2] = Math.nextDown(node);
+			x[4 * i + 3] = node + 0.5 / STEPS;
+		}
+		return x;
+	}
+	
+	private static void assertSigmoid(double[] inputs) {
+		for (double x: inputs) {
+			double exact = ActivationFunctions.sigmoid(x);
+			double fast = FastFunction.SIGMOID.activate(x);
+			assertEquals("sigmoid(" + x + ")", exact, fast, SIGMOID_ERROR);
+			assertEquals("dsigmoid(" + x + ")", Function.SIGMOID.derivate(exact), FastFunction.SIGMOID.derivate(fast), SIGMOID_ERROR);
+		}
+	}
+	
+	private static void assertTanh(double[] inputs) {
+		for (double x: inputs) {
+			double exact = ActivationFunctions.tanh(x);
+			double fast = FastFunction.TANH.activate(x);
+			assertEquals("tanh(" + x + ")", exact, fast, TANH_ERROR);
+			assertEquals("dtanh(" + x + ")", Function.TANH.derivate(exact), FastFunction.TANH.derivate(fast), TANH_ERROR);
+		}
+	}
+	
+	@Test
+	public void sigmoidSweep() {
+		assertSigmoid(sweep());
+	}
+	
+	@Test
+	public void sigmoidTableBoundaries() {
+		assertSigmoid(tableBoundaries());
+	}
+	
+	@Test
+	public void tanhSweep() {
+		assertTanh(sweep());
+	}
+	
+	@Test
+	public void tanhTableBoundaries() {
+		// tanh reads the table at 2x, so its intervals are half as wide
+		double[] x = tableBoundaries();
+		for (int i=0; i<x.length; i++) {
+			x[i] /= 2;
+		}
+		assertTanh(x);
+	}
+	
+	@Test
+	public void saturation() {
+		double[] x = { -RANGE, RANGE, -RANGE - 1e-9, RANGE + 1e-9, -100, 100, -1e300, 1e300, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY };
+		assertSigmoid(x);
+		assertTanh(x);
+		for (double v: x) {
+			double s = FastFunction.SIGMOID.activate(v);
+			double t = FastFunction.TANH.activate(v);
+			assertTrue("sigmoid(" + v + ") out of range", s >= 0 && s <= 1);
+			assertTrue("tanh(" + v + ") out of range", t >= -1 && t <= 1);
+		}
+	}
+	
+	@Test
+	public void arrays() {
+		double[] x = sweep();
+		for (FastFunction f: FastFunction.values()) {
+			Function exact = f == FastFunction.SIGMOID ? Function.SIGMOID : Function.TANH;
+			double error = f == FastFunction.SIGMOID ? SIGMOID_ERROR : TANH_ERROR;
+			double[] a = x.clone();
+			float[] b = new float[x.length];
+			for (int i=0; i<x.length; i++) {
+				b[i] = (float) x[i];
+			}
+			f.activate(a, 0, a.length);
+			f.activate(b, 0, b.length);
+			double[] da = new double[a.length];
+			float[] db = new float[b.length];
+			f.derivate(da, 0, a, 0, a.length);
+			f.derivate(db, 0, b, 0, b.length);
+			for (int i=0; i<x.length; i++) {
+				double y = exact.activate(x[i]);
+				assertEquals(f + " double(" + x[i] + ")", y, a[i], error);
+				assertEquals(f + " float(" + x[i] + ")", y, b[i], error + 1e-6);
+				assertEquals(f + " derivate double(" + x[i] + ")", exact.derivate(y), da[i], error);
+				assertEquals(f + " derivate float(" + x[i] + ")", exact.derivate(y), db[i], error + 1e-6);
+			}
+		}
+	}
+
+}
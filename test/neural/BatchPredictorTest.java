@@ -0,0 +1,101 @@
+package neural;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Predictions in batches against the predictions of single samples, serial and with the batches
+ * and multiplications split between the threads of the pool.
+ */
+public class BatchPredictorTest {
+	
+	private static double[][] inputs(int count, int size, Random random) {
+		double[][] inputs = new double[count][size];
+		for (int i=0; i<count; i++) {
+			for (int j=0; j<size; j++) {
+				inputs[i][j] = random.nextDouble() * 2 - 1;
+			}
+		}
+		return inputs;
+	}
+	
+	private static void checkBatches(NeuralNetwork network, double[][] inputs) {
+		double[][] expected = new double[inputs.length][network.getTargetsSize()];
+		for (int i=0; i<inputs.length; i++) {
+			network.predict(inputs[i], expected[i]);
+		}
+		double[][] outputs = new double[inputs.length][network.getTargetsSize()];
+		network.predictBatch(inputs, outputs);
+		int[] classes = network.predictArgmax(inputs);
+		for (int i=0; i<inputs.length; i++) {
+			for (int j=0; j<expected[i].length; j++) {
+				assertEquals("sample " + i + " output " + j, expected[i][j], outputs[i][j], 1e-12);
+			}
+			assertEquals("class of sample " + i, BatchPredictor.argmax(Matrix.createVector(expected[i]), 0), classes[i]);
+		}
+	}
+	
+	@Test
+	public void batchesMatchSingleSamples() {
+		int batchSize = NeuralNetwork.PREDICT_BATCH_SIZE;
+		int parallelism = NeuralNetwork.PARALLELISM;
+		try {
+			NeuralNetwork.PREDICT_BATCH_SIZE = 16;
+			NeuralNetwork.PARALLELISM = 1;
+			NeuralNetwork network = new NeuralNetwork(12, 20, 7);
+			// The last batch holds 3 samples.
+			checkBatches(network, inputs(83, 12, new Random(1)));
+		} finally {
+			NeuralNetwork.PREDICT_BATCH_SIZE = batchSize;
+			NeuralNetwork.PARALLELISM = parallelism;
+		}
+	}
+	
+	@Test
+	public void parallelBatchesMatchSingleSamples() {
+		int batchSize = NeuralNetwork.PREDICT_BATCH_SIZE;
+		int parallelism = NeuralNetwork.PARALLELISM;
+		long threshold = NeuralNetwork.PARALLEL_THRESHOLD;
+		try {
+			NeuralNetwork.PREDICT_BATCH_SIZE = 16;
+			NeuralNetwork network = new NeuralNetwork(12, 20, 7);
+			double[][] inputs = inputs(300, 12, new Random(2));
+			// Every batch and every multiplication is split, the workers run other batches while they wait.
+			NeuralNetwork.PARALLELISM = 8;
+			NeuralNetwork.PARALLEL_THRESHOLD = 1;
+			for (int run=0; run<5; run++) {
+				checkBatches(network, inputs);
+			}
+		} finally {
+			NeuralNetwork.PREDICT_BATCH_SIZE = batchSize;
+			NeuralNetwork.PARALLELISM = parallelism;
+			NeuralNetwork.PARALLEL_THRESHOLD = threshold;
+		}
+	}
+	
+	@Test
+	public void nestedPredictionsUseOtherWorkspaces() {
+		NeuralNetwork network = new NeuralNetwork(3, 4, 2);
+		double[] input = {0.5, -1, 2};
+		double[] expected = new double[2];
+		network.predict(input, expected);
+		
+		// A prediction of the same thread while a batch holds its workspace.
+		Workspace batch = network.acquireWorkspace(16);
+		try {
+			double[] output = new double[2];
+			network.predict(input, output);
+			assertEquals(expected[0], output[0], 0);
+			assertEquals(expected[1], output[1], 0);
+			assertTrue(network.acquireWorkspace(16) != batch);
+			network.releaseWorkspace();
+		} finally {
+			network.releaseWorkspace();
+		}
+	}
+
+}
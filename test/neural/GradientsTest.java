@@ -0,0 +1,83 @@
+package neural;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Gradients of the back propagation against central finite differences of the loss
+ * 1/2 * ||target - output||^2. The gradients point in the direction of a smaller loss,
+ * so they are the negative derivatives.
+ */
+public class GradientsTest {
+	
+	private static final double H = 1e-6;
+	
+	private static double loss(NeuralNetwork network, Data data) throws Exception {
+		Matrix error = Matrix.subtract(data.getTarget(), network.predict(data));
+		return 0.5 * Matrix.getSquaredNorm(error);
+	}
+	
+	private static void checkParameter(String name, NeuralNetwork network, Data data, Matrix parameter, Matrix gradient) throws Exception {
+		for (int i=0; i<parameter.getN(); i++) {
+			for (int j=0; j<parameter.getM(); j++) {
+				double value = parameter.get(i, j);
+				parameter.setValue(i, j, value + H);
+				double plus = loss(network, data);
+				parameter.setValue(i, j, value - H);
+				double minus = loss(network, data);
+				parameter.setValue(i, j, value);
+				double derivative = (plus - minus) / (2 * H);
+				assertEquals(name + " (" + i + ", " + j + ")", -derivative, gradient.get(i, j), 1e-7);
+			}
+		}
+	}
+	
+	@Test
+	public void backPropagationMatchesFiniteDifferences() throws Exception {
+		NeuralNetwork network = new NeuralNetwork(4, 6, 5, 3);
+		Random random = new Random(1);
+		for (int sample=0; sample<3; sample++) {
+			Data data = new Data(MatrixTest.random(4, 1, Precision.FLOAT64, random), MatrixTest.random(3, 1, Precision.FLOAT64, random));
+			Gradients gradients = network.createGradients();
+			network.computeGradients(data, gradients);
+			for (int l=0; l<3; l++) {
+				Layer layer = network.getLayer(l);
+				checkParameter("sample " + sample + " weights " + l, network, data, layer.getData(), gradients.getWeightGradient(l));
+				checkParameter("sample " + sample + " bias " + l, network, data, layer.getBias(), gradients.getBiasGradient(l));
+			}
+		}
+	}
+	
+	@Test
+	public void directUpdateUsesTheWeightsBeforeTheStep() throws Exception {
+		// A single sample without an optimizer updates the layers during the back propagation.
+		NeuralNetwork network = new NeuralNetwork(4, 6, 5, 3);
+		Random random = new Random(2);
+		Data data = new Data(MatrixTest.random(4, 1, Precision.FLOAT64, random), MatrixTest.random(3, 1, Precision.FLOAT64, random));
+		Matrix[] start = network.snapshot(null);
+		Gradients gradients = network.createGradients();
+		network.computeGradients(data, gradients);
+		network.applyGradients(gradients, null, 1);
+		Matrix[] expected = network.snapshot(null);
+		
+		network.restore(start);
+		network.train(data);
+		TrainingTest.assertWeights("train", expected, network, 1e-12);
+	}
+	
+	@Test
+	public void clipNormScalesToTheMaximum() throws Exception {
+		NeuralNetwork network = new NeuralNetwork(4, 6, 3);
+		Gradients gradients = network.createGradients();
+		network.computeGradients(new Data(Matrix.createVector(1, -1, 0.5, 2), Matrix.createVector(1, 0, 0)), gradients);
+		double norm = gradients.getNorm();
+		gradients.clipNorm(norm / 4);
+		assertEquals(norm / 4, gradients.getNorm(), 1e-12);
+		gradients.clipNorm(norm);
+		assertEquals(norm / 4, gradients.getNorm(), 1e-12);
+	}
+
+}
@@ -0,0 +1,127 @@
+package neural;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import neural.ActivationFunctions.Function;
+
+/**
+ * Predictions of the frozen model against the predictions of the network it was created from.
+ */
+public class InferenceModelTest {
+	
+	private static double[] input(int size, Random random) {
+		double[] input = new double[size];
+		for (int j=0; j<size; j++) {
+			input[j] = random.nextDouble() * 4 - 2;
+		}
+		return input;
+	}
+	
+	private static void checkModel(String name, NeuralNetwork network, double delta) {
+		InferenceModel model = network.freeze();
+		assertEquals(name + " parameters", 9 * 13 + 13 + 13 * 7 + 7 + 7 * 4 + 4, model.getParameterCount());
+		Random random = new Random(1);
+		double[] expected = new double[network.getTargetsSize()];
+		for (int s=0; s<20; s++) {
+			double[] input = input(network.getInputsSize(), random);
+			network.predict(input, expected);
+			double[] output = model.predict(input);
+			for (int i=0; i<expected.length; i++) {
+				assertEquals(name + " sample " + s + " output " + i, expected[i], output[i], delta);
+			}
+			assertEquals(name + " class of sample " + s, BatchPredictor.argmax(Matrix.createVector(output), 0), model.predictClass(input));
+		}
+	}
+	
+	@Test
+	public void frozenModelMatchesPredict() {
+		boolean info = NeuralNetwork.INFO_ENABLED;
+		NeuralNetwork.INFO_ENABLED = false;
+		try {
+			checkModel("float64", new NeuralNetwork(9, 13, 7, 4), 1e-12);
+			checkModel("float32", new NeuralNetwork(Precision.FLOAT32, 9, 13, 7, 4), 1e-5);
+			
+			NeuralNetwork fast = new NeuralNetwork(9, 13, 7, 4);
+			fast.setFastMath(true);
+			checkModel("fast math", fast, 1e-12);
+			
+			NeuralNetwork mixed = new NeuralNetwork(9, 13, 7, 4);
+			mixed.getLayer(0).setActivation(Function.RELU);
+			mixed.getLayer(1).setActivation(Function.TANH);
+			checkModel("relu and tanh", mixed, 1e-12);
+		} finally {
+			NeuralNetwork.INFO_ENABLED = info;
+		}
+	}
+	
+	@Test
+	public void trainingDoesNotChangeTheModel() {
+		boolean info = NeuralNetwork.INFO_ENABLED;
+		NeuralNetwork.INFO_ENABLED = false;
+		try {
+			NeuralNetwork network = new NeuralNetwork(9, 13, 7, 4);
+			InferenceModel model = network.freeze();
+			double[] input = input(9, new Random(2));
+			double[] before = model.predict(input);
+			
+			double[] target = {1, 0, 0, 0};
+			for (int i=0; i<10; i++) {
+				network.train(new Data(Matrix.createVector(input), Matrix.createVector(target)));
+			}
+			double[] trained = new double[4];
+			network.predict(input, trained);
+			double[] after = model.predict(input);
+			for (int i=0; i<4; i++) {
+				assertEquals("output " + i, before[i], after[i], 0);
+			}
+			assertTrue(trained[0] != before[0]);
+		} finally {
+			NeuralNetwork.INFO_ENABLED = info;
+		}
+	}
+	
+	@Test
+	public void concurrentPredictionsMatch() throws Exception {
+		boolean info = NeuralNetwork.INFO_ENABLED;
+		NeuralNetwork.INFO_ENABLED = false;
+		try {
+			InferenceModel model = new NeuralNetwork(9, 13, 7, 4).freeze();
+			double[][] inputs = new double[100][];
+			double[][] expected = new double[100][];
+			Random random = new Random(3);
+			for (int s=0; s<inputs.length; s++) {
+				inputs[s] = input(9, random);
+				expected[s] = model.predict(inputs[s]);
+			}
+			boolean[] failed = new boolean[4];
+			Thread[] threads = new Thread[4];
+			for (int t=0; t<threads.length; t++) {
+				int thread = t;
+				threads[t] = new Thread(() -> {
+					double[] output = new double[4];
+					for (int run=0; run<50; run++) {
+						for (int s=0; s<inputs.length; s++) {
+							model.predict(inputs[s], output);
+							for (int i=0; i<4; i++) {
+								failed[thread] |= output[i] != expected[s][i];
+							}
+						}
+					}
+				});
+				threads[t].start();
+			}
+			for (int t=0; t<threads.length; t++) {
+				threads[t].join();
+				assertTrue("thread " + t, !failed[t]);
+			}
+		} finally {
+			NeuralNetwork.INFO_ENABLED = info;
+		}
+	}
+
+}
@@ -0,0 +1,247 @@
+package neural;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Results of the Matrix multiply kernels, dense and sparse, against a naive triple loop over
+ * get(i, j), and of the parallel splits against the serial kernels.
+ */
+public class MatrixTest {
+	
+	/** Shapes n x k times k x p, around the block and unroll sizes of the kernels. */
+	private static final int[][] SHAPES = {
+		{1, 1, 1}, {1, 7, 1}, {5, 3, 1}, {3, 5, 2}, {4, 4, 4}, {7, 9, 13},
+		{17, 31, 5}, {64, 64, 64}, {65, 129, 33}, {130, 70, 3}
+	};
+	
+	static Matrix random(int n, int m, Precision precision, Random random) {
+		Matrix matrix = new Matrix(n, m, precision);
+		for (int i=0; i<n; i++) {
+			for (int j=0; j<m; j++) {
+				matrix.setValue(i, j, random.nextDouble() * 2 - 1);
+			}
+		}
+		return matrix;
+	}
+	
+	/**
+	 * A dense matrix with about a third of its elements not zero, and an empty row.
+	 */
+	static Matrix sparse(int n, int m, Random random) {
+		Matrix matrix = new Matrix(n, m);
+		for (int i=1; i<n; i++) {
+			for (int j=0; j<m; j++) {
+				if (random.nextInt(3) == 0) {
+					matrix.setValue(i, j, random.nextDouble() * 2 - 1);
+				}
+			}
+		}
+		return matrix;
+	}
+	
+	static double[][] naive(Matrix a, Matrix b) {
+		double[][] c = new double[a.getN()][b.getM()];
+		for (int i=0; i<a.getN(); i++) {
+			for (int j=0; j<b.getM(); j++) {
+				double sum = 0;
+				for (int l=0; l<a.getM(); l++) {
+					sum += a.get(i, l) * b.get(l, j);
+				}
+				c[i][j] = sum;
+			}
+		}
+		return c;
+	}
+	
+	static void assertMatrix(String message, double[][] expected, Matrix actual, double delta) {
+		assertEquals(message + " rows", expected.length, actual.getN());
+		assertEquals(message + " columns", expected[0].length, actual.getM());
+		for (int i=0; i<expected.length; i++) {
+			for (int j=0; j<expected[i].length; j++) {
+				assertEquals(message + " (" + i + ", " + j + ")", expected[i][j], actual.get(i, j), delta);
+			}
+		}
+	}
+	
+	static double[][] toArray(Matrix matrix) {
+		double[][] array = new double[matrix.getN()][matrix.getM()];
+		for (int i=0; i<matrix.getN(); i++) {
+			for (int j=0; j<matrix.getM(); j++) {
+				array[i][j] = matrix.get(i, j);
+			}
+		}
+		return array;
+	}
+	
+	private static String name(int[] shape) {
+		return shape[0] + "x" + shape[1] + " * " + shape[1] + "x" + shape[2];
+	}
+	
+	@Test
+	public void multiplyMatchesNaive() throws Exception {
+		Random random = new Random(1);
+		for (int[] shape: SHAPES) {
+			Matrix a = random(shape[0], shape[1], Precision.FLOAT64, random);
+			Matrix b = random(shape[1], shape[2], Precision.FLOAT64, random);
+			assertMatrix(name(shape), naive(a, b), Matrix.multiply(a, b), 1e-12 * shape[1]);
+		}
+	}
+	
+	@Test
+	public void multiplyOfViewsMatchesNaive() throws Exception {
+		Random random = new Random(2);
+		for (int[] shape: SHAPES) {
+			// Sub matrices have a larger row stride than their width and do not start at offset 0.
+			Matrix a = random(shape[0] + 1, shape[1] + 4, Precision.FLOAT64, random).subMatrix(1, 3, shape[0], shape[1]);
+			Matrix b = random(shape[1] + 2, shape[2] + 3, Precision.FLOAT64, random).subMatrix(1, 2, shape[1], shape[2]);
+			Matrix dest = new Matrix(shape[0] + 2, shape[2] + 2).subMatrix(2, 1, shape[0], shape[2]);
+			Matrix.multiplyInto(dest, a, b);
+			assertMatrix(name(shape), naive(a, b), dest, 1e-12 * shape[1]);
+		}
+	}
+	
+	@Test
+	public void transposedMultiplyMatchesNaive() throws Exception {
+		Random random = new Random(7);
+		for (int[] shape: SHAPES) {
+			// a is stored k x n, b is stored p x k, the products use them transposed without a copy.
+			Matrix a = random(shape[1], shape[0], Precision.FLOAT64, random);
+			Matrix b = random(shape[1], shape[2], Precision.FLOAT64, random);
+			Matrix dest = new Matrix(shape[0], shape[2]);
+			Matrix.multiplyTransA(dest, a, b);
+			assertMatrix("a^T * b " + name(shape), naive(Matrix.transpose(a), b), dest, 1e-12 * shape[1]);
+			
+			Matrix c = random(shape[0], shape[1], Precision.FLOAT64, random);
+			Matrix d = random(shape[2], shape[1], Precision.FLOAT64, random);
+			Matrix.multiplyTransB(dest, c, d);
+			assertMatrix("a * b^T " + name(shape), naive(c, Matrix.transpose(d)), dest, 1e-12 * shape[1]);
+		}
+	}
+	
+	@Test
+	public void gerMatchesNaive() throws Exception {
+		Random random = new Random(8);
+		for (Precision precision: new Precision[] {Precision.FLOAT64, Precision.FLOAT32}) {
+			Matrix x = random(13, 1, precision, random);
+			Matrix y = random(9, 1, precision, random);
+			Matrix a = random(13, 9, precision, random);
+			double[][] expected = toArray(a);
+			for (int i=0; i<13; i++) {
+				for (int j=0; j<9; j++) {
+					expected[i][j] += -0.25 * x.get(i, 0) * y.get(j, 0);
+				}
+			}
+			Matrix.ger(a, -0.25, x, y);
+			assertMatrix("ger " + precision, expected, a, precision == Precision.FLOAT64 ? 1e-15 : 1e-6);
+		}
+	}
+	
+	@Test
+	public void sparseMultiplyMatchesNaive() throws Exception {
+		Random random = new Random(9);
+		for (Precision precision: new Precision[] {Precision.FLOAT64, Precision.FLOAT32}) {
+			for (int[] shape: SHAPES) {
+				Matrix a = random(shape[0], shape[1], precision, random);
+				Matrix b = sparse(shape[1], shape[2], random);
+				Matrix dest = new Matrix(shape[0], shape[2], precision);
+				dest.init(Double.NaN);
+				Matrix.multiplyInto(dest, a, SparseMatrix.fromDense(b));
+				double delta = precision == Precision.FLOAT64 ? 1e-12 * shape[1] : 1e-6 * shape[1];
+				assertMatrix("sparse " + precision + " " + name(shape), naive(a, b), dest, delta);
+			}
+		}
+	}
+	
+	@Test
+	public void sparseGerAndSetColMatchDense() throws Exception {
+		Random random = new Random(10);
+		Matrix x = random(11, 1, Precision.FLOAT64, random);
+		Matrix y = sparse(23, 1, random);
+		Matrix a = random(11, 23, Precision.FLOAT64, random);
+		Matrix expected = a.copy();
+		Matrix.ger(expected, 0.5, x, y);
+		Matrix.ger(a, 0.5, x, SparseMatrix.fromDense(y));
+		assertMatrix("ger", toArray(expected), a, 0);
+		
+		Matrix batch = random(23, 3, Precision.FLOAT64, random);
+		batch.setCol(1, SparseMatrix.fromDense(y));
+		for (int i=0; i<23; i++) {
+			assertEquals("setCol " + i, y.get(i, 0), batch.get(i, 1), 0);
+		}
+	}
+	
+	@Test
+	public void parallelMultiplyMatchesSerial() throws Exception {
+		Random random = new Random(5);
+		int parallelism = NeuralNetwork.PARALLELISM;
+		long threshold = NeuralNetwork.PARALLEL_THRESHOLD;
+		try {
+			for (int[] shape: SHAPES) {
+				Matrix a = random(shape[0], shape[1], Precision.FLOAT64, random);
+				Matrix b = random(shape[1], shape[2], Precision.FLOAT64, random);
+				NeuralNetwork.PARALLELISM = 1;
+				Matrix serial = Matrix.multiply(a, b);
+				
+				// Every split is taken, the halves must produce the same bits as the serial kernel.
+				NeuralNetwork.PARALLELISM = 4;
+				NeuralNetwork.PARALLEL_THRESHOLD = 1;
+				for (int run=0; run<3; run++) {
+					assertMatrix("parallel " + name(shape), toArray(serial), Matrix.multiply(a, b), 0);
+				}
+				NeuralNetwork.PARALLEL_THRESHOLD = threshold;
+			}
+		} finally {
+			NeuralNetwork.PARALLELISM = parallelism;
+			NeuralNetwork.PARALLEL_THRESHOLD = threshold;
+		}
+	}
+	
+	@Test
+	public void parallelGerMatchesSerial() throws Exception {
+		Random random = new Random(6);
+		int parallelism = NeuralNetwork.PARALLELISM;
+		long threshold = NeuralNetwork.PARALLEL_THRESHOLD;
+		try {
+			Matrix x = random(67, 1, Precision.FLOAT64, random);
+			Matrix y = random(45, 1, Precision.FLOAT64, random);
+			Matrix a = random(67, 45, Precision.FLOAT64, random);
+			Matrix serial = a.copy();
+			NeuralNetwork.PARALLELISM = 1;
+			Matrix.ger(serial, 0.5, x, y);
+			
+			NeuralNetwork.PARALLELISM = 4;
+			NeuralNetwork.PARALLEL_THRESHOLD = 1;
+			Matrix.ger(a, 0.5, x, y);
+			assertMatrix("ger", toArray(serial), a, 0);
+		} finally {
+			NeuralNetwork.PARALLELISM = parallelism;
+			NeuralNetwork.PARALLEL_THRESHOLD = threshold;
+		}
+	}
+	
+	@Test
+	public void floatMultiplyMatchesNaive() throws Exception {
+		Random random = new Random(3);
+		for (int[] shape: SHAPES) {
+			Matrix a = random(shape[0], shape[1], Precision.FLOAT32, random);
+			Matrix b = random(shape[1], shape[2], Precision.FLOAT32, random);
+			assertMatrix(name(shape), naive(a, b), Matrix.multiply(a, b), 1e-6 * shape[1]);
+		}
+	}
+	
+	@Test
+	public void multiplyIntoOverwritesTheDestination() throws Exception {
+		Random random = new Random(4);
+		Matrix a = random(9, 11, Precision.FLOAT64, random);
+		Matrix b = random(11, 6, Precision.FLOAT64, random);
+		Matrix dest = new Matrix(9, 6);
+		dest.init(Double.NaN);
+		Matrix.multiplyInto(dest, a, b);
+		assertMatrix("multiplyInto", naive(a, b), dest, 1e-12 * 11);
+	}
+
+}
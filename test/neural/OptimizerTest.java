@@ -0,0 +1,141 @@
+package neural;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Updates of the optimizers over several steps against scalar implementations of the textbook rules,
+ * on contiguous parameters and on views, which take the strided loops instead of the kernels.
+ */
+public class OptimizerTest {
+	
+	private static final int STEPS = 4;
+	private static final double SCALE = 0.5;
+	
+	private interface Rule {
+		/** Updates p and the state s of one element with the scaled gradient g of step t. */
+		void step(double[] p, double[][] s, int i, double g, long t);
+	}
+	
+	private static void check(String name, Optimizer optimizer, Rule rule, int stateCount) throws Exception {
+		for (boolean view: new boolean[] {false, true}) {
+			optimizer.reset();
+			Random random = new Random(1);
+			Matrix parameter = view ? MatrixTest.random(6, 5, Precision.FLOAT64, random).subMatrix(1, 1, 4, 3) : MatrixTest.random(4, 3, Precision.FLOAT64, random);
+			double[] p = new double[12];
+			double[][] s = new double[stateCount][12];
+			for (int i=0; i<12; i++) {
+				p[i] = parameter.get(i / 3, i % 3);
+			}
+			for (int t=1; t<=STEPS; t++) {
+				Matrix gradient = MatrixTest.random(4, 3, Precision.FLOAT64, random);
+				long step = optimizer.nextStep();
+				assertEquals(name + " step", t, step);
+				optimizer.update(0, parameter, gradient, SCALE, step);
+				for (int i=0; i<12; i++) {
+					rule.step(p, s, i, SCALE * gradient.get(i / 3, i % 3), t);
+				}
+				for (int i=0; i<12; i++) {
+					assertEquals(name + (view ? " view" : "") + " step " + t + " element " + i, p[i], parameter.get(i / 3, i % 3), 1e-12);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void sgd() throws Exception {
+		check("sgd", Optimizer.sgd(0.1), (p, s, i, g, t) -> p[i] += 0.1 * g, 0);
+	}
+	
+	@Test
+	public void momentum() throws Exception {
+		check("momentum", Optimizer.momentum(0.1, 0.9), (p, s, i, g, t) -> {
+			s[0][i] = 0.9 * s[0][i] + g;
+			p[i] += 0.1 * s[0][i];
+		}, 1);
+	}
+	
+	@Test
+	public void nesterov() throws Exception {
+		check("nesterov", Optimizer.nesterov(0.1, 0.9), (p, s, i, g, t) -> {
+			s[0][i] = 0.9 * s[0][i] + g;
+			p[i] += 0.1 * (g + 0.9 * s[0][i]);
+		}, 1);
+	}
+	
+	@Test
+	public void rmsProp() throws Exception {
+		check("rmsProp", Optimizer.rmsProp(0.01), (p, s, i, g, t) -> {
+			s[0][i] = 0.9 * s[0][i] + 0.1 * g * g;
+			p[i] += 0.01 * g / (Math.sqrt(s[0][i]) + 1e-8);
+		}, 1);
+	}
+	
+	@Test
+	public void adam() throws Exception {
+		// Without epsilon the bias correction folded into the rate is exactly the textbook rule.
+		check("adam", new Optimizer.Adam(0.01, 0.9, 0.999, 0), (p, s, i, g, t) -> {
+			s[0][i] = 0.9 * s[0][i] + 0.1 * g;
+			s[1][i] = 0.999 * s[1][i] + 0.001 * g * g;
+			double m = s[0][i] / (1 - Math.pow(0.9, t));
+			double v = s[1][i] / (1 - Math.pow(0.999, t));
+			p[i] += 0.01 * m / Math.sqrt(v);
+		}, 2);
+	}
+	
+	@Test
+	public void scheduleUsesTheStepOfTheUpdate() throws Exception {
+		Optimizer optimizer = Optimizer.sgd(1);
+		optimizer.setSchedule(LearningRateSchedule.exponentialDecay(0.5));
+		Matrix parameter = new Matrix(1, 1);
+		Matrix gradient = Matrix.createVector(1);
+		long first = optimizer.nextStep();
+		long second = optimizer.nextStep();
+		// An update of the first step after the second step started still uses the rate of the first.
+		optimizer.update(0, parameter, gradient, 1, first);
+		assertEquals(1, parameter.get(0, 0), 0);
+		optimizer.update(0, parameter, gradient, 1, second);
+		assertEquals(1.5, parameter.get(0, 0), 0);
+		assertEquals(0.5, optimizer.getCurrentLearningRate(), 0);
+	}
+	
+	@Test
+	public void concurrentStepsAreCounted() throws Exception {
+		Optimizer optimizer = Optimizer.adam(0.001);
+		Thread[] threads = new Thread[4];
+		for (int t=0; t<threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i=0; i<10000; i++) {
+					optimizer.nextStep();
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		assertEquals(40000, optimizer.getStep());
+	}
+	
+	@Test
+	public void resetZeroesTheState() throws Exception {
+		NeuralNetwork network = new NeuralNetwork(4, 3, 2);
+		Optimizer optimizer = Optimizer.momentum(0.1, 0.9);
+		network.setOptimizer(optimizer);
+		Gradients gradients = network.createGradients();
+		network.computeGradients(new Data(Matrix.createVector(1, 0, 1, 0), Matrix.createVector(1, 0)), gradients);
+		Matrix[] start = network.snapshot(null);
+		gradients.apply(optimizer);
+		
+		// After a reset the zeroed state gives the same first step again.
+		Matrix[] first = network.snapshot(null);
+		network.restore(start);
+		optimizer.reset();
+		gradients.apply(optimizer);
+		TrainingTest.assertWeights("reset", first, network, 0);
+	}
+
+}
@@ -0,0 +1,199 @@
+package neural;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Errors of the int8 network against the bound of the rounding, and the binary file format.
+ * <p>
+ * A weight row i and a layer input are rounded to steps of W_i / 127 and X / 127, where W_i and X are
+ * their largest absolute values, so the k products of the row are off by at most
+ * k * W_i * X * (1 / 254 + 1 / 254 + 1 / 254^2), and the sigmoid scales the error by at most 1/4.
+ * The error of a hidden output passes on to the next layer through its weights.
+ */
+public class QuantizedNetworkTest {
+	
+	private static DataSet dataSet(int count, int inputs, int classes, Random random) {
+		DataSet dataSet = new DataSet();
+		for (int s=0; s<count; s++) {
+			Matrix target = new Matrix(classes, 1);
+			target.setValue(random.nextInt(classes), 0, 1);
+			dataSet.addData(new Data(MatrixTest.random(inputs, 1, Precision.FLOAT64, random), target));
+		}
+		return dataSet;
+	}
+	
+	private static double rowMax(Matrix w, int i) {
+		double max = 0;
+		for (int j=0; j<w.getM(); j++) {
+			max = Math.max(max, Math.abs(w.get(i, j)));
+		}
+		return max;
+	}
+	
+	private static double inputMax(Data d) {
+		double max = 0;
+		for (int j=0; j<d.getInputs().getN(); j++) {
+			max = Math.max(max, Math.abs(d.getInputs().get(j, 0)));
+		}
+		return max;
+	}
+	
+	private static final double STEP = 1.0 / 254;
+	
+	/**
+	 * Checks the outputs of a network with one hidden layer. The hidden outputs of the sigmoid are
+	 * below 1, a calibrated scale clamps a hidden output only towards the float value.
+	 */
+	private static void checkBound(String name, NeuralNetwork network, QuantizedNetwork quantized, DataSet dataSet, double calibratedMax) {
+		Matrix w1 = network.getLayer(0).getData();
+		Matrix w2 = network.getLayer(1).getData();
+		for (int s=0; s<dataSet.size(); s++) {
+			Data d = dataSet.getData(s);
+			Matrix expected = network.predict(d);
+			double[] output = quantized.predict(d);
+			double x = calibratedMax > 0 ? calibratedMax : inputMax(d);
+			double[] hidden = new double[w1.getN()];
+			for (int j=0; j<hidden.length; j++) {
+				hidden[j] = 0.25 * w1.getM() * rowMax(w1, j) * x * (2 * STEP + STEP * STEP) + 1e-6;
+			}
+			for (int i=0; i<output.length; i++) {
+				double error = w2.getM() * rowMax(w2, i) * STEP;
+				for (int j=0; j<hidden.length; j++) {
+					error += (Math.abs(w2.get(i, j)) + rowMax(w2, i) * STEP) * (hidden[j] + STEP);
+				}
+				double bound = 0.25 * error + 1e-6;
+				double actual = Math.abs(output[i] - expected.get(i, 0));
+				assertTrue(name + " sample " + s + " output " + i + ": " + actual + " > " + bound, actual <= bound);
+			}
+		}
+	}
+	
+	@Test
+	public void errorIsBounded() {
+		boolean info = NeuralNetwork.INFO_ENABLED;
+		NeuralNetwork.INFO_ENABLED = false;
+		try {
+			NeuralNetwork network = new NeuralNetwork(24, 16, 10);
+			DataSet dataSet = dataSet(50, 24, 10, new Random(1));
+			checkBound("dynamic", network, QuantizedNetwork.quantize(network), dataSet, 0);
+			
+			double max = 0;
+			for (int s=0; s<dataSet.size(); s++) {
+				max = Math.max(max, inputMax(dataSet.getData(s)));
+			}
+			QuantizedNetwork calibrated = QuantizedNetwork.quantize(network, dataSet);
+			assertTrue(calibrated.isCalibrated());
+			checkBound("calibrated", network, calibrated, dataSet, max);
+		} finally {
+			NeuralNetwork.INFO_ENABLED = info;
+		}
+	}
+	
+	@Test
+	public void deepNetworkAgreesWithTheReference() {
+		boolean info = NeuralNetwork.INFO_ENABLED;
+		NeuralNetwork.INFO_ENABLED = false;
+		try {
+			NeuralNetwork network = new NeuralNetwork(16, 32, 24, 6);
+			DataSet dataSet = dataSet(200, 16, 6, new Random(2));
+			QuantizationReport report = QuantizedNetwork.quantize(network, dataSet).compare(network, dataSet);
+			assertTrue(report.toString(), report.getMaxError() < 0.02);
+			assertTrue(report.toString(), report.getMeanError() < 0.005);
+		} finally {
+			NeuralNetwork.INFO_ENABLED = info;
+		}
+	}
+	
+	@Test
+	public void quantizeWithEmptyCalibrationSet() {
+		boolean info = NeuralNetwork.INFO_ENABLED;
+		NeuralNetwork.INFO_ENABLED = false;
+		try {
+			QuantizedNetwork quantized = QuantizedNetwork.quantize(new NeuralNetwork(4, 3, 2), new DataSet());
+			assertTrue(!quantized.isCalibrated());
+		} finally {
+			NeuralNetwork.INFO_ENABLED = info;
+		}
+	}
+	
+	@Test
+	public void saveAndLoadRoundTrip() throws Exception {
+		boolean info = NeuralNetwork.INFO_ENABLED;
+		NeuralNetwork.INFO_ENABLED = false;
+		File file = File.createTempFile("quantized", ".qnn");
+		try {
+			NeuralNetwork network = new NeuralNetwork(16, 12, 5);
+			DataSet dataSet = dataSet(40, 16, 5, new Random(3));
+			for (DataSet calibration: new DataSet[] {null, dataSet}) {
+				QuantizedNetwork quantized = QuantizedNetwork.quantize(network, calibration);
+				quantized.save(file.getPath());
+				QuantizedNetwork loaded = QuantizedNetwork.load(file.getPath());
+				assertTrue(loaded != null);
+				assertTrue(Arrays.equals(quantized.getLayerSizes(), loaded.getLayerSizes()));
+				assertEquals(quantized.isCalibrated(), loaded.isCalibrated());
+				assertEquals(quantized.getWeightBytes(), loaded.getWeightBytes());
+				assertTrue(Arrays.deepEquals(quantized.predict(dataSet), loaded.predict(dataSet)));
+			}
+		} finally {
+			NeuralNetwork.INFO_ENABLED = info;
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Saves a 16-12-5 network and overwrites an int at a position of the file.
+	 */
+	private static File damaged(long position, int value, boolean asByte) throws Exception {
+		File file = File.createTempFile("quantized", ".qnn");
+		QuantizedNetwork.quantize(new NeuralNetwork(16, 12, 5)).save(file.getPath());
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(position);
+			if (asByte) {
+				raf.writeByte(value);
+			} else {
+				raf.writeInt(value);
+			}
+		}
+		return file;
+	}
+	
+	@Test
+	public void loadRejectsDamagedFiles() throws Exception {
+		boolean info = NeuralNetwork.INFO_ENABLED;
+		NeuralNetwork.INFO_ENABLED = false;
+		// Magic, layer count, three sizes, two flags, then the activation function of the first layer.
+		File[] files = {
+			damaged(0, 0, false),
+			damaged(4, 1, false),
+			damaged(4, -3, false),
+			damaged(8, 0, false),
+			damaged(12, -12, false),
+			damaged(22, 200, true),
+		};
+		try {
+			for (int f=0; f<files.length; f++) {
+				assertTrue("file " + f, QuantizedNetwork.load(files[f].getPath()) == null);
+			}
+			File truncated = damaged(0, 0x514E4E31, false);
+			try (RandomAccessFile raf = new RandomAccessFile(truncated, "rw")) {
+				raf.setLength(raf.length() - 1);
+			}
+			assertTrue("truncated", QuantizedNetwork.load(truncated.getPath()) == null);
+			truncated.delete();
+		} finally {
+			NeuralNetwork.INFO_ENABLED = info;
+			for (File file: files) {
+				file.delete();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package neural;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Conversions of the CSR matrix and the handling of sparse inputs in Data and DataSet.
+ */
+public class SparseMatrixTest {
+	
+	@Test
+	public void denseRoundTrip() {
+		Matrix dense = MatrixTest.sparse(9, 7, new Random(1));
+		SparseMatrix sparse = SparseMatrix.fromDense(dense);
+		MatrixTest.assertMatrix("toDense", MatrixTest.toArray(dense), sparse.toDense(), 0);
+		
+		SparseMatrix vector = sparse.toVector();
+		assertEquals(63, vector.getN());
+		assertEquals(1, vector.getM());
+		assertEquals(sparse.getNonZeroCount(), vector.getNonZeroCount());
+		Matrix expected = Matrix.createVectorFromMatrix(dense);
+		MatrixTest.assertMatrix("toVector", MatrixTest.toArray(expected), vector.toDense(), 0);
+	}
+	
+	@Test
+	public void optimizeNegativeValues() {
+		SparseMatrix sparse = SparseMatrix.fromDense(Matrix.createVector(0, -4, 0, -2));
+		sparse.optimize();
+		// The largest stored value is -2, not Double.MIN_VALUE.
+		MatrixTest.assertMatrix("optimize", new double[][] {{0}, {2}, {0}, {1}}, sparse.toDense(), 0);
+	}
+	
+	@Test
+	public void dataWithNullInputs() {
+		Matrix target = Matrix.createVector(1, 0);
+		Data d = new Data(null, target);
+		assertTrue(d.getInputs() == null);
+		assertTrue(d.getTarget() == target);
+		
+		SparseMatrix inputs = SparseMatrix.fromDense(Matrix.createVector(0, 3));
+		Data sparse = Data.fromSparse(inputs, target);
+		assertTrue(sparse.isSparse());
+		assertTrue(sparse.getSparseInputs() == inputs);
+		assertTrue(sparse.getInputs() == null);
+	}
+	
+	@Test
+	public void decreaseSparseData() {
+		DataSet dataSet = new DataSet();
+		dataSet.addData(new Data(Matrix.createVector(1, 0, 3, 0, 0, 6), Matrix.createVector(1)));
+		dataSet.toSparse();
+		dataSet.decrease(2);
+		Data d = dataSet.getData(0);
+		assertTrue(d.isSparse());
+		MatrixTest.assertMatrix("decrease", new double[][] {{1}, {3}, {0}}, d.getSparseInputs().toDense(), 0);
+	}
+	
+	@Test
+	public void decreaseSparseImage() {
+		DataSet dataSet = new DataSet();
+		dataSet.addData(new Data(new Matrix(4, 4), Matrix.createVector(1)));
+		dataSet.toSparse();
+		try {
+			dataSet.decreaseImage(2);
+			fail("Sparse inputs have no image shape");
+		} catch (IllegalStateException e) {
+			assertTrue(dataSet.getData(0).isSparse());
+		}
+	}
+
+}
@@ -0,0 +1,220 @@
+package neural;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Gradients of the mini-batch training against the gradients of single samples, the data-parallel
+ * training against itself and the serial training, the reports of the asynchronous training and the
+ * parallel loss evaluation.
+ */
+public class TrainingTest {
+	
+	private static final int[] SIZES = {5, 7, 3};
+	private static final int BATCH = 6;
+	
+	static DataSet dataSet(int size, Random random) {
+		DataSet dataSet = new DataSet();
+		for (int i=0; i<size; i++) {
+			Matrix inputs = MatrixTest.random(SIZES[0], 1, Precision.FLOAT64, random);
+			Matrix target = new Matrix(SIZES[SIZES.length - 1], 1);
+			target.setValue(random.nextInt(target.getN()), 0, 1);
+			dataSet.addData(new Data(inputs, target));
+		}
+		return dataSet;
+	}
+	
+	static void assertGradients(String message, Gradients expected, Gradients actual, double delta) {
+		for (int l=0; l<expected.getLayerCount(); l++) {
+			MatrixTest.assertMatrix(message + " weights " + l, MatrixTest.toArray(expected.getWeightGradient(l)), actual.getWeightGradient(l), delta);
+			MatrixTest.assertMatrix(message + " bias " + l, MatrixTest.toArray(expected.getBiasGradient(l)), actual.getBiasGradient(l), delta);
+		}
+	}
+	
+	static void assertWeights(String message, Matrix[] expected, NeuralNetwork network, double delta) {
+		Matrix[] actual = network.snapshot(null);
+		for (int i=0; i<expected.length; i++) {
+			MatrixTest.assertMatrix(message + " " + i, MatrixTest.toArray(expected[i]), actual[i], delta);
+		}
+	}
+	
+	/**
+	 * Runs one step on a batch with one sample per column.
+	 */
+	private static Workspace batchStep(NeuralNetwork network, DataSet dataSet, boolean apply) throws Exception {
+		Workspace workspace = new Workspace(SIZES, network.getPrecision(), BATCH);
+		workspace.setApplyUpdates(apply);
+		int[] samples = new int[BATCH];
+		for (int i=0; i<BATCH; i++) {
+			samples[i] = i;
+		}
+		dataSet.fillBatch(samples, 0, BATCH, workspace.getInputs(), workspace.getTargets());
+		network.trainStep(workspace, new Data(workspace.getInputs(), workspace.getTargets()));
+		return workspace;
+	}
+	
+	@Test
+	public void batchGradientIsSumOfSampleGradients() throws Exception {
+		NeuralNetwork network = new NeuralNetwork(SIZES);
+		DataSet dataSet = dataSet(BATCH, new Random(1));
+		Gradients sum = network.createGradients();
+		for (int i=0; i<BATCH; i++) {
+			network.computeGradients(dataSet.getData(i), sum);
+		}
+		assertEquals(BATCH, sum.getSampleCount());
+		
+		Gradients batch = batchStep(network, dataSet, false).getGradients();
+		assertEquals(BATCH, batch.getSampleCount());
+		assertGradients("batch", sum, batch, 1e-12);
+	}
+	
+	@Test
+	public void batchStepAveragesSampleGradients() throws Exception {
+		NeuralNetwork network = new NeuralNetwork(SIZES);
+		DataSet dataSet = dataSet(BATCH, new Random(2));
+		Matrix[] start = network.snapshot(null);
+		Gradients sum = network.createGradients();
+		for (int i=0; i<BATCH; i++) {
+			network.computeGradients(dataSet.getData(i), sum);
+		}
+		network.applyGradients(sum, null, 1.0 / BATCH);
+		Matrix[] expected = network.snapshot(null);
+		
+		network.restore(start);
+		batchStep(network, dataSet, true);
+		assertWeights("weights", expected, network, 1e-12);
+	}
+	
+	private static TrainingConfig config(int threads) {
+		TrainingConfig config = new TrainingConfig(10);
+		config.setEpochs(2);
+		config.setSeed(3L);
+		config.setThreads(threads);
+		return config;
+	}
+	
+	@Test
+	public void dataParallelIsDeterministic() throws Exception {
+		boolean info = NeuralNetwork.INFO_ENABLED;
+		NeuralNetwork.INFO_ENABLED = false;
+		try {
+			NeuralNetwork network = new NeuralNetwork(SIZES);
+			DataSet dataSet = dataSet(40, new Random(4));
+			Matrix[] start = network.snapshot(null);
+			
+			// Shards of 3, 3, 2 and 2 samples, summed along the same tree in every run.
+			network.train(dataSet, config(4));
+			Matrix[] first = network.snapshot(null);
+			network.restore(start);
+			network.train(dataSet, config(4));
+			assertWeights("second run", first, network, 0);
+			
+			// The serial run sees the same batches and sums the samples in another order.
+			network.restore(start);
+			network.train(dataSet, config(1));
+			assertWeights("serial", first, network, 1e-12);
+		} finally {
+			NeuralNetwork.INFO_ENABLED = info;
+		}
+	}
+	
+	@Test
+	public void asynchronousRunReportsEveryStep() throws Exception {
+		boolean info = NeuralNetwork.INFO_ENABLED;
+		NeuralNetwork.INFO_ENABLED = false;
+		try {
+			DataSet dataSet = dataSet(40, new Random(5));
+			TrainingConfig config = new TrainingConfig(4);
+			config.setEpochs(3);
+			config.setThreads(3);
+			config.setAsynchronous(true);
+			TrainingResult result = new NeuralNetwork(SIZES).train(dataSet, config);
+			assertEquals(TrainingResult.StopReason.COMPLETED, result.getStopReason());
+			assertEquals(30, result.getSteps());
+		} finally {
+			NeuralNetwork.INFO_ENABLED = info;
+		}
+	}
+	
+	@Test
+	public void trainDoesNotReshapeTheDataSet() throws Exception {
+		boolean info = NeuralNetwork.INFO_ENABLED;
+		NeuralNetwork.INFO_ENABLED = false;
+		try {
+			Random random = new Random(6);
+			DataSet dataSet = new DataSet();
+			for (int i=0; i<8; i++) {
+				dataSet.addData(new Data(MatrixTest.random(2, 3, Precision.FLOAT64, random), MatrixTest.random(1, 2, Precision.FLOAT64, random)));
+			}
+			Data first = dataSet.getData(0);
+			Matrix inputs = first.getInputs();
+			TrainingConfig config = new TrainingConfig(4);
+			config.setEpochs(1);
+			new NeuralNetwork(6, 4, 2).train(dataSet, config);
+			assertTrue(dataSet.getData(0) == first);
+			assertTrue(first.getInputs() == inputs);
+			assertEquals(3, first.getInputs().getM());
+			assertEquals(2, first.getTarget().getM());
+		} finally {
+			NeuralNetwork.INFO_ENABLED = info;
+		}
+	}
+	
+	@Test
+	public void parallelLossMatchesSerialLoss() throws Exception {
+		NeuralNetwork network = new NeuralNetwork(SIZES);
+		DataSet dataSet = dataSet(300, new Random(7));
+		double expected = 0;
+		for (int i=0; i<dataSet.size(); i++) {
+			Matrix loss = Matrix.subtract(dataSet.getData(i).getTarget(), network.predict(dataSet.getData(i)));
+			expected += Matrix.getSquaredNorm(loss);
+		}
+		expected /= dataSet.size();
+		
+		int parallelism = NeuralNetwork.PARALLELISM;
+		long threshold = NeuralNetwork.PARALLEL_THRESHOLD;
+		try {
+			// The tasks split the samples and every multiplication, so the workers run other loss tasks
+			// while they wait for the halves of a multiplication.
+			NeuralNetwork.PARALLELISM = 8;
+			NeuralNetwork.PARALLEL_THRESHOLD = 1;
+			for (int run=0; run<5; run++) {
+				assertEquals("run " + run, expected, network.evaluateLoss(dataSet), 1e-12);
+			}
+		} finally {
+			NeuralNetwork.PARALLELISM = parallelism;
+			NeuralNetwork.PARALLEL_THRESHOLD = threshold;
+		}
+	}
+	
+	@Test
+	public void lossOfEmptyDataSet() {
+		try {
+			new NeuralNetwork(SIZES).evaluateLoss(new DataSet());
+			fail("The mean of no samples is not defined");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage() != null);
+		}
+	}
+	
+	@Test
+	public void nestedPassesTakeTheirOwnWorkspaces() {
+		NeuralNetwork network = new NeuralNetwork(SIZES);
+		Workspace outer = network.acquireWorkspace(1);
+		// A task run by the same thread while the outer pass waits.
+		Workspace inner = network.acquireWorkspace(1);
+		assertTrue(inner != outer);
+		network.releaseWorkspace();
+		assertTrue(network.acquireWorkspace(1) == inner);
+		network.releaseWorkspace();
+		network.releaseWorkspace();
+		assertTrue(network.acquireWorkspace(1) == outer);
+		network.releaseWorkspace();
+	}
+
+}